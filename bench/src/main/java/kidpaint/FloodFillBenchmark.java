@@ -0,0 +1,112 @@
+package kidpaint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Point;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bucket tool without a window. Every call fills the area at (0, 0)
+ * with the other of two colors, so each fill covers the same cells:
+ *   paintArea - MainWindow.paintArea(): FloodFill, then the dirty blocks
+ *               and the cells to send marked run by run
+ *   bfs       - paintArea() before FloodFill: a LinkedList<Point> BFS
+ * on an empty canvas and on one with random walls (a ragged area).
+ * Run with -prof gc for the bytes allocated per fill.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodFillBenchmark {
+    final static int WALL = 0xFF000000;
+    final static int[] COLORS = {0xFFFF0000, 0xFF00FF00};
+
+    @Param({"100", "1024"})
+    int size;
+
+    @Param({"empty", "walls"})
+    String canvas;
+
+    TiledCanvas data;
+    FloodFill bucket = new FloodFill();
+    DirtyRegion dirty;
+    CellBuffer filledPixels;
+    int fills = 0;
+
+    @Setup
+    public void setup() {
+        data = new TiledCanvas(size);
+        if (canvas.equals("walls")) {
+            Random random = new Random(1);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (random.nextInt(100) < 30 && (x | y) != 0) data.set(x, y, WALL);
+                }
+            }
+        }
+        dirty = new DirtyRegion(size);
+        dirty.takeInto(new BitSet()); // past the first frame, so cells are marked one by one
+        filledPixels = new CellBuffer(size);
+    }
+
+    @Benchmark
+    public int paintArea() {
+        // MainWindow.paintArea(), which keeps adding until the mouse is released
+        filledPixels.clear();
+        MainWindow.fillAndMark(bucket, data, 0, 0, COLORS[fills++ & 1], null, dirty, filledPixels);
+        return filledPixels.count();
+    }
+
+    @Benchmark
+    public int bfs() {
+        return bfs(data, 0, 0, COLORS[fills++ & 1]);
+    }
+
+    /**
+     * MainWindow.paintArea() as it was, minus the dirty marking (java.awt.Point
+     * stands in for MainWindow.Point, which had the same two int fields)
+     */
+    static int bfs(TiledCanvas data, int col, int row, int color) {
+        int oriColor = data.get(col, row);
+        LinkedList<Point> buffer = new LinkedList<Point>();
+        LinkedList<Point> filledPixels = new LinkedList<Point>();
+        int size = data.size;
+
+        if (oriColor != color) {
+            buffer.add(new Point(col, row));
+
+            while(!buffer.isEmpty()) {
+                Point p = buffer.removeFirst();
+                col = p.x;
+                row = p.y;
+
+                if (data.get(col, row) != oriColor) continue;
+
+                data.set(col, row, color);
+                filledPixels.add(p);
+
+                if (col > 0 && data.get(col-1, row) == oriColor) buffer.add(new Point(col-1, row));
+                if (col < size - 1 && data.get(col+1, row) == oriColor) buffer.add(new Point(col+1, row));
+                if (row > 0 && data.get(col, row-1) == oriColor) buffer.add(new Point(col, row-1));
+                if (row < size - 1 && data.get(col, row+1) == oriColor) buffer.add(new Point(col, row+1));
+            }
+        }
+        return filledPixels.size();
+    }
+}
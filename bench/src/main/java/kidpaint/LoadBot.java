@@ -0,0 +1,250 @@
+package kidpaint;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One simulated kid for LoadGenerator. It speaks protocol version 1
+ * (NAME, PIXELS, MESSAGE, FULL_SKETCH_UPDATE) like the original client,
+ * only naming a studio after its name when it joins a DedicatedServer,
+ * reads everything the server relays on its own thread, and draws, fills,
+ * chats and replaces the sketch when the generator's scheduler says so.
+ *
+ * What it sends is marked so every bot can time it when it comes back:
+ * the alpha byte of a color says what it is (STROKE, FILL, SKETCH) and the
+ * low 24 bits are an id, chat lines end in PING and an id. The generator
+ * keeps the send time of every id.
+ */
+public class LoadBot {
+    final int NAME = 0;
+    final int PIXELS = 1;
+    final int MESSAGE = 2;
+    final int FULL_SKETCH = 3;
+    final int FULL_SKETCH_UPDATE = 4;
+
+    // Alpha bytes of the marked colors
+    final static int STROKE = 0xFE;
+    final static int FILL = 0xFD;
+    final static int SKETCH = 0xFC;
+    final static String PING = "load-ping ";
+
+    private LoadGenerator generator;
+    final String name;
+    private String studio; // null for the server's first studio
+    private MessageBuilder message = new MessageBuilder(4096);
+    private Socket socket;
+    private OutputStream out;
+    private volatile int size = 0; // canvas size, 0 until the first sketch arrived
+    private long joinStarted;      // System.nanoTime() of the last connect
+    private int x, y;              // where the pen is
+
+    public LoadBot(LoadGenerator generator, String name, String studio) {
+        this.generator = generator;
+        this.name = name;
+        this.studio = studio;
+    }
+
+    /**
+     * Connect, say the name and start reading. Counts as joined when the sketch arrives.
+     */
+    synchronized void connect() throws IOException {
+        Socket socket = new Socket(generator.host, generator.port);
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        size = 0;
+        joinStarted = System.nanoTime();
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] studioBytes = studio == null ? new byte[0] : studio.getBytes(StandardCharsets.UTF_8);
+        message.begin(NAME);
+        if (studio == null) {
+            message.writeInt(bytes.length);
+            message.writeBytes(bytes, 0, bytes.length);
+        } else {
+            // name, 0, version 1, studio
+            message.writeInt(bytes.length + 2 + studioBytes.length);
+            message.writeBytes(bytes, 0, bytes.length);
+            message.writeByte(0);
+            message.writeByte(1);
+            message.writeBytes(studioBytes, 0, studioBytes.length);
+        }
+        send();
+
+        Thread reader = new Thread(() -> read(socket, in), name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Leave the studio
+     */
+    synchronized void close() {
+        size = 0;
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ex) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Leave and join again at once (churn)
+     */
+    synchronized void rejoin() {
+        close();
+        try {
+            connect();
+        } catch (IOException ex) {
+            generator.errors.increment();
+        }
+    }
+
+    /**
+     * A pen stroke: strokeCells cells of a random walk, in one PIXELS message
+     */
+    synchronized void stroke() {
+        int size = this.size;
+        if (size == 0) return;
+        int cells = generator.strokeCells;
+        x = Math.min(x, size - 1);
+        y = Math.min(y, size - 1);
+        message.begin(PIXELS);
+        message.writeInt(generator.mark(STROKE));
+        message.writeInt(cells);
+        for (int i = 0; i < cells; i++) {
+            switch (generator.random.nextInt(4)) {
+                case 0: x = Math.min(size - 1, x + 1); break;
+                case 1: x = Math.max(0, x - 1); break;
+                case 2: y = Math.min(size - 1, y + 1); break;
+                default: y = Math.max(0, y - 1); break;
+            }
+            message.writeInt(x);
+            message.writeInt(y);
+        }
+        send();
+    }
+
+    /**
+     * A bucket fill: a rectangle of about fillCells cells, in one PIXELS message
+     */
+    synchronized void fill() {
+        int size = this.size;
+        if (size == 0) return;
+        int width = Math.min(size, Math.max(1, (int) Math.sqrt(generator.fillCells)));
+        int height = Math.min(size, (generator.fillCells + width - 1) / width);
+        int left = generator.random.nextInt(size - width + 1);
+        int top = generator.random.nextInt(size - height + 1);
+        message.begin(PIXELS);
+        message.writeInt(generator.mark(FILL));
+        message.writeInt(width * height);
+        for (int row = top; row < top + height; row++) {
+            for (int col = left; col < left + width; col++) {
+                message.writeInt(col);
+                message.writeInt(row);
+            }
+        }
+        send();
+    }
+
+    synchronized void chat() {
+        if (size == 0) return;
+        byte[] bytes = (PING + generator.markId()).getBytes(StandardCharsets.UTF_8);
+        message.begin(MESSAGE);
+        message.writeInt(bytes.length);
+        message.writeBytes(bytes, 0, bytes.length);
+        send();
+    }
+
+    /**
+     * A whole new sketch in one color, with the marked color in cell (0, 0)
+     */
+    synchronized void sketch() {
+        int size = this.size;
+        if (size == 0) return;
+        int color = 0xFF000000 | generator.random.nextInt(0x1000000);
+        message.begin(FULL_SKETCH_UPDATE);
+        message.writeInt(size);
+        message.writeInt(generator.mark(SKETCH));
+        for (int i = 1; i < size * size; i++) {
+            message.writeInt(color);
+        }
+        send();
+    }
+
+    private void send() {
+        try {
+            message.writeTo(out);
+            generator.sent(message.size());
+        } catch (IOException ex) {
+            generator.errors.increment();
+            close();
+        }
+    }
+
+    /**
+     * The reading thread of one connection
+     */
+    private void read(Socket socket, DataInputStream in) {
+        try {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    throw new EOFException("the server closed the connection");
+                }
+                long now = System.nanoTime();
+                long bytes;
+                switch (type) {
+                    case PIXELS: {
+                        int color = in.readInt();
+                        int len = in.readInt();
+                        in.skipNBytes(8L * len);
+                        generator.arrived(color, now);
+                        bytes = 9 + 8L * len;
+                        break;
+                    }
+                    case MESSAGE: {
+                        int len = in.readInt();
+                        byte[] text = new byte[len];
+                        in.readFully(text);
+                        String line = new String(text, StandardCharsets.UTF_8);
+                        int ping = line.lastIndexOf(PING);
+                        if (ping >= 0) {
+                            generator.pingArrived(Integer.parseInt(line.substring(ping + PING.length())), now);
+                        }
+                        bytes = 5 + len;
+                        break;
+                    }
+                    case FULL_SKETCH:
+                    case FULL_SKETCH_UPDATE: {
+                        int size = in.readInt();
+                        int first = in.readInt();
+                        in.skipNBytes(4L * size * size - 4);
+                        if (type == FULL_SKETCH) {
+                            generator.joined(now - joinStarted);
+                        } else {
+                            generator.arrived(first, now);
+                        }
+                        this.size = size;
+                        bytes = 5 + 4L * size * size;
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unexpected message type " + type);
+                }
+                generator.received(bytes);
+            }
+        } catch (IOException ex) {
+            if (!socket.isClosed() && generator.running) {
+                System.out.println(name + " lost the connection: " + ex.getMessage());
+                generator.errors.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fills a studio with LoadBots, so we know how many kids a server holds
+ * before a class is in the room. Every bot draws strokes, makes bucket fills,
+ * chats and now and then replaces the whole sketch, at random (Poisson) times
+ * with the given average rates, and some leave and join again.
+ * Prints throughput every few seconds and, at the end, the latency from
+ * sending a message until each bot got it back (fan-out latency) as percentiles.
+ *
+ *   java -cp bench/target/benchmarks.jar kidpaint.LoadGenerator --clients=200 --local=true
+ *
+ * Options (per bot rates are per second):
+ *   --host=localhost --port=12345  the server; --local=true starts one in this JVM,
+ *                                  taking the server options (--server=nio, --relayTick=15, ...)
+ *   --studios=A,B                  spread the bots over these studios of a DedicatedServer
+ *                                  (which --local=true then starts)
+ *   --clients=50 --ramp=5          bots, and the seconds over which they join
+ *   --duration=30 --report=5       seconds to run, seconds between reports
+ *   --strokeRate=2 --strokeCells=32
+ *   --fillRate=0.05 --fillCells=2000
+ *   --chatRate=0.2 --sketchRate=0 --churn=0.01
+ */
+public class LoadGenerator {
+    // Send times of the marked messages, by id
+    final static int IDS = 1 << 16;
+
+    String host;
+    int port;
+    String[] studios; // null when the server has only one studio
+    int clients;
+    int ramp;
+    int duration;
+    int report;
+    double strokeRate, fillRate, chatRate, sketchRate, churn;
+    int strokeCells, fillCells;
+    volatile boolean running = true;
+    final Random random = new Random();
+
+    private ScheduledExecutorService scheduler;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicLongArray sendTimes = new AtomicLongArray(IDS);
+
+    final LatencyHistogram strokes = new LatencyHistogram();
+    final LatencyHistogram fills = new LatencyHistogram();
+    final LatencyHistogram chats = new LatencyHistogram();
+    final LatencyHistogram sketches = new LatencyHistogram();
+    final LatencyHistogram joins = new LatencyHistogram();
+    final LongAdder sentMessages = new LongAdder();
+    final LongAdder sentBytes = new LongAdder();
+    final LongAdder receivedMessages = new LongAdder();
+    final LongAdder receivedBytes = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    public LoadGenerator(Map<String, String> named) {
+        host = named.getOrDefault("host", "localhost");
+        port = Integer.parseInt(named.getOrDefault("port", "12345"));
+        if (named.containsKey("studios")) {
+            studios = named.get("studios").split(",");
+            for (int i = 0; i < studios.length; i++) {
+                studios[i] = studios[i].trim();
+            }
+        }
+        clients = Integer.parseInt(named.getOrDefault("clients", "50"));
+        ramp = Integer.parseInt(named.getOrDefault("ramp", "5"));
+        duration = Integer.parseInt(named.getOrDefault("duration", "30"));
+        report = Math.max(1, Integer.parseInt(named.getOrDefault("report", "5")));
+        strokeRate = Double.parseDouble(named.getOrDefault("strokeRate", "2"));
+        strokeCells = Math.max(1, Integer.parseInt(named.getOrDefault("strokeCells", "32")));
+        fillRate = Double.parseDouble(named.getOrDefault("fillRate", "0.05"));
+        fillCells = Math.max(1, Integer.parseInt(named.getOrDefault("fillCells", "2000")));
+        chatRate = Double.parseDouble(named.getOrDefault("chatRate", "0.2"));
+        sketchRate = Double.parseDouble(named.getOrDefault("sketchRate", "0"));
+        churn = Double.parseDouble(named.getOrDefault("churn", "0.01"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> named = ServerConfig.namedArgs(args);
+        LoadGenerator generator = new LoadGenerator(named);
+        PaintServerHost server = null;
+        DedicatedServer dedicated = null;
+        if (Boolean.parseBoolean(named.getOrDefault("local", "false"))) {
+            if (generator.studios != null) {
+                dedicated = new DedicatedServer(generator.port, Arrays.asList(generator.studios), named);
+                new Thread(dedicated, "server").start();
+            } else {
+                server = new PaintServerHost(generator.port, "Load test", ServerConfig.fromArgs(named));
+                new Thread(server, "server").start();
+            }
+            generator.awaitServer();
+        }
+        generator.run();
+        if (server != null) {
+            server.stopServer();
+        }
+        if (dedicated != null) {
+            dedicated.stop();
+        }
+        System.exit(0); // the server's threads are not daemons
+    }
+
+    /**
+     * Wait until the server takes connections, at most 10 s
+     */
+    void awaitServer() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException ex) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    void run() throws InterruptedException {
+        scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        List<LoadBot> bots = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            LoadBot bot = new LoadBot(this, "bot" + i, studios == null ? null : studios[i % studios.length]);
+            bots.add(bot);
+            long delay = clients > 1 ? (long) ramp * 1000 * i / (clients - 1) : 0;
+            scheduler.schedule(() -> start(bot), delay, TimeUnit.MILLISECONDS);
+        }
+        System.out.printf("%d bots joining %s:%d over %d s, running for %d s%n", clients, host, port, ramp, duration);
+
+        long started = System.nanoTime();
+        long lastSent = 0, lastSentBytes = 0, lastReceived = 0, lastReceivedBytes = 0;
+        for (int elapsed = report; elapsed <= duration; elapsed += report) {
+            Thread.sleep(Math.max(0, started + elapsed * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+            long sent = sentMessages.sum(), sentB = sentBytes.sum();
+            long received = receivedMessages.sum(), receivedB = receivedBytes.sum();
+            System.out.printf("%4d s  sent %7.0f msg/s %9.1f KB/s  received %8.0f msg/s %9.1f KB/s  stroke p99 %s  errors %d%n",
+                    elapsed, (sent - lastSent) / (double) report, (sentB - lastSentBytes) / 1024.0 / report,
+                    (received - lastReceived) / (double) report, (receivedB - lastReceivedBytes) / 1024.0 / report,
+                    LatencyHistogram.millis(strokes.percentile(99)), errors.sum());
+            lastSent = sent;
+            lastSentBytes = sentB;
+            lastReceived = received;
+            lastReceivedBytes = receivedB;
+        }
+
+        running = false;
+        scheduler.shutdownNow();
+        for (LoadBot bot : bots) {
+            bot.close();
+        }
+        printSummary((System.nanoTime() - started) / 1e9);
+    }
+
+    private void start(LoadBot bot) {
+        try {
+            bot.connect();
+        } catch (IOException ex) {
+            System.out.println(bot.name + " could not connect: " + ex.getMessage());
+            errors.increment();
+            return;
+        }
+        repeat(bot::stroke, strokeRate);
+        repeat(bot::fill, fillRate);
+        repeat(bot::chat, chatRate);
+        repeat(bot::sketch, sketchRate);
+        repeat(bot::rejoin, churn);
+    }
+
+    /**
+     * Run action again and again, perSecond times a second on average (exponential gaps)
+     */
+    private void repeat(Runnable action, double perSecond) {
+        if (perSecond <= 0 || !running) return;
+        long delay = (long) (-Math.log(1 - random.nextDouble()) / perSecond * 1_000_000);
+        scheduler.schedule(() -> {
+            if (!running) return;
+            action.run();
+            repeat(action, perSecond);
+        }, delay, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * A new id with its send time taken now
+     */
+    int markId() {
+        int id = nextId.getAndIncrement() & 0xFFFFFF;
+        sendTimes.set(id % IDS, System.nanoTime());
+        return id;
+    }
+
+    /**
+     * A color marked as kind (an alpha byte of LoadBot) with a new id
+     */
+    int mark(int kind) {
+        return (kind << 24) | markId();
+    }
+
+    /**
+     * A bot got a color back from the server; time it if a bot sent it
+     */
+    void arrived(int color, long now) {
+        LatencyHistogram histogram;
+        switch (color >>> 24) {
+            case LoadBot.STROKE: histogram = strokes; break;
+            case LoadBot.FILL: histogram = fills; break;
+            case LoadBot.SKETCH: histogram = sketches; break;
+            default: return; // somebody else drew it
+        }
+        histogram.record(now - sendTimes.get((color & 0xFFFFFF) % IDS));
+    }
+
+    void pingArrived(int id, long now) {
+        chats.record(now - sendTimes.get(id % IDS));
+    }
+
+    void joined(long nanos) {
+        joins.record(nanos);
+    }
+
+    void sent(long bytes) {
+        sentMessages.increment();
+        sentBytes.add(bytes);
+    }
+
+    void received(long bytes) {
+        receivedMessages.increment();
+        receivedBytes.add(bytes);
+    }
+
+    private void printSummary(double seconds) {
+        System.out.printf("%nSent     %d messages, %.1f MB (%.0f msg/s)%n",
+                sentMessages.sum(), sentBytes.sum() / 1048576.0, sentMessages.sum() / seconds);
+        System.out.printf("Received %d messages, %.1f MB (%.0f msg/s)%n",
+                receivedMessages.sum(), receivedBytes.sum() / 1048576.0, receivedMessages.sum() / seconds);
+        System.out.println("Errors   " + errors.sum());
+        System.out.println("Fan-out latency, send to each bot's receive:");
+        printLatency("stroke", strokes);
+        printLatency("fill", fills);
+        printLatency("chat", chats);
+        printLatency("sketch", sketches);
+        printLatency("join", joins);
+    }
+
+    private void printLatency(String name, LatencyHistogram histogram) {
+        if (histogram.count() == 0) return;
+        System.out.printf("  %-7s %9d  %s%n", name, histogram.count(), histogram.summary());
+    }
+}
@@ -0,0 +1,104 @@
+package kidpaint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One pen stroke relayed to a studio full of kids, per message:
+ *   receivePixels    - a PIXELS message read, applied and relayed
+ *   receivePixelRuns - the same stroke as a PIXELS_RUNS message
+ *   forwardPixels    - only the relay: log the batch, encode it once per
+ *                      format and queue it for every client
+ * The clients are StubConnections, so this is the server's work per
+ * message without the sockets. Run with -prof gc for the garbage per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelFanOutBenchmark {
+    final static int COLOR = 0xFFFF8000;
+
+    @Param({"1", "32", "1000"})
+    int clients;
+
+    // Protocol version of every client: 1 PIXELS, 2 PIXELS_RUNS, 4 PIXELS_RUNS + SEQUENCE
+    @Param({"1", "2", "4"})
+    int version;
+
+    // Cells in the stroke; a 20 ms pen flush is usually a few dozen
+    @Param({"64"})
+    int cells;
+
+    PaintServerHost server;
+    PixelBatch batch;
+    DataInputStream pixels, runs;
+    ByteArrayInputStream pixelBytes, runBytes;
+
+    @Setup
+    public void setup() {
+        server = new PaintServerHost(0, "bench");
+        StubConnection.connect(server, clients, version);
+        batch = new PixelBatch(server.canvas.size);
+
+        // A slanted line, as the pen interpolates it
+        batch.begin(COLOR);
+        for (int i = 0; i < cells; i++) {
+            batch.cells.add(10 + i % 80, 10 + i / 2 % 80);
+        }
+        server.canvas.tilesOf(batch.cells, batch.tiles);
+
+        // The message bodies after the type byte, read again for every message
+        MessageBuilder message = new MessageBuilder(1024);
+        message.writeInt(COLOR);
+        message.writeInt(cells);
+        for (int i = 0; i < cells; i++) {
+            message.writeInt(batch.cells.x(i));
+            message.writeInt(batch.cells.y(i));
+        }
+        pixelBytes = new ByteArrayInputStream(Arrays.copyOf(message.array(), message.size()));
+        pixels = new DataInputStream(pixelBytes);
+
+        message.reset();
+        message.writeInt(COLOR);
+        PixelCodec codec = new PixelCodec();
+        codec.addAll(batch.cells);
+        codec.writeTo(message);
+        runBytes = new ByteArrayInputStream(Arrays.copyOf(message.array(), message.size()));
+        runs = new DataInputStream(runBytes);
+    }
+
+    @Benchmark
+    public void receivePixels() throws IOException {
+        pixelBytes.reset();
+        server.receivePixels(pixels, batch);
+    }
+
+    @Benchmark
+    public void receivePixelRuns() throws IOException {
+        runBytes.reset();
+        server.receivePixelRuns(runs, batch);
+    }
+
+    @Benchmark
+    public void forwardPixels() {
+        server.forwardPixels(batch);
+    }
+}
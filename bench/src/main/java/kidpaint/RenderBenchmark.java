@@ -0,0 +1,153 @@
+package kidpaint;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MainWindow.render() per frame, into a Canvas that is not on screen:
+ * a 100x100 canvas of 16 colors drawn at 8 pixels per cell.
+ *   renderer - one of MainWindow.RENDERERS, or "original" for the render
+ *              loop before ColorCache (a new Color per cell)
+ *   frame    - full: everything is dirty (resize, zoom, a new sketch);
+ *              dirty: a pen stroke touched three blocks
+ * Each frame ends with a clear of the whole canvas, so the canvas drops
+ * the commands it queued, as a pulse would.
+ *
+ * The frames are drawn on the FX thread (PixelBuffer.updateBuffer() insists),
+ * FRAMES at a time so handing them over costs little, which needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    final static int SIZE = 100;
+    final static int FRAMES = 20;
+    final static double PIXEL_SIZE = 8;
+
+    @Param({"original", "ovals", "pixels", "beads"})
+    String renderer;
+
+    @Param({"full", "dirty"})
+    String frame;
+
+    TiledCanvas cells;
+    Canvas canvas;
+    GraphicsContext gc;
+    DirtyRegion region;
+    BitSet dirtyBlocks = new BitSet();
+    OvalRenderer ovalRenderer;
+    PixelBufferRenderer pixelRenderer;
+    Runnable frames = this::drawFrames;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        cells = new TiledCanvas(SIZE);
+        Random random = new Random(1);
+        int[] palette = new int[16];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                cells.set(x, y, palette[random.nextInt(palette.length)]);
+            }
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+        onFxThread(() -> {
+            canvas = new Canvas(SIZE * PIXEL_SIZE, SIZE * PIXEL_SIZE);
+            gc = canvas.getGraphicsContext2D();
+            region = new DirtyRegion(SIZE);
+            ovalRenderer = new OvalRenderer();
+            pixelRenderer = new PixelBufferRenderer();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void render() throws InterruptedException {
+        onFxThread(frames);
+    }
+
+    private void drawFrames() {
+        for (int i = 0; i < FRAMES; i++) {
+            if (frame.equals("full")) {
+                region.markAll();
+            } else {
+                region.markCell(10, 10);
+                region.markCell(50, 20);
+                region.markCell(90, 90);
+            }
+            render(cells, region);
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        }
+    }
+
+    /**
+     * MainWindow.render() with the whole canvas on screen
+     */
+    private void render(TiledCanvas cells, DirtyRegion region) {
+        if (region.isClean()) return;
+        if (renderer.equals("original")) {
+            region.takeInto(dirtyBlocks);
+            original(cells);
+        } else {
+            MainWindow.drawCells(gc, cells, region, dirtyBlocks, renderer, ovalRenderer, pixelRenderer,
+                    0, 0, cells.size - 1, cells.size - 1, 0, 0, PIXEL_SIZE);
+        }
+    }
+
+    /**
+     * The render loop before ColorCache and the dirty regions
+     */
+    private void original(TiledCanvas cells) {
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setStroke(Color.GRAY);
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                int argb = cells.get(col, row);
+                gc.setFill(Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF,
+                        ((argb >> 24) & 0xFF) / 255.0));
+                gc.fillOval(col * PIXEL_SIZE, row * PIXEL_SIZE, PIXEL_SIZE, PIXEL_SIZE);
+                gc.strokeOval(col * PIXEL_SIZE, row * PIXEL_SIZE, PIXEL_SIZE, PIXEL_SIZE);
+            }
+        }
+    }
+
+    static void onFxThread(Runnable work) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            try {
+                work.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+}
@@ -0,0 +1,103 @@
+package kidpaint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a joining kid costs the server: sendFullSketch() for a client of
+ * each protocol version (1 raw ints, 2 SKETCH_PACKED, 3 TILE per tile).
+ *   sendFullSketch       - someone drew a cell since the last join, so
+ *                          the whole canvas is encoded again
+ *   sendFullSketchCached - nobody drew, versions 1 and 2 get the SnapshotCache frame
+ * on a doodle (long runs of few colors) and on noise (every cell random).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SketchEncodingBenchmark {
+    @Param({"1", "2", "3"})
+    int version;
+
+    @Param({"100", "1024"})
+    int size;
+
+    @Param({"doodle", "noise"})
+    String content;
+
+    PaintServerHost server;
+    StubConnection client;
+    PixelBatch change;
+    int changes = 0;
+
+    @Setup
+    public void setup() {
+        ServerConfig config = new ServerConfig();
+        config.canvasSize = size;
+        server = new PaintServerHost(0, "bench", config);
+        server.canvas.replaceAll(content.equals("noise") ? noise(size) : doodle(size), before -> {});
+
+        client = new StubConnection(server, "joiner", version);
+        client.setViewport(new Viewport(0, 0, server.canvas.tilesAcross - 1, server.canvas.tilesAcross - 1));
+        change = new PixelBatch(size);
+    }
+
+    @Benchmark
+    public void sendFullSketch() throws IOException {
+        // One cell, not relayed, so the canvas version moves on
+        change.begin(0xFF000000 | changes++);
+        change.cells.add(0, 0);
+        server.canvas.applyPixels(change, batch -> {});
+        server.sendFullSketch(client);
+    }
+
+    @Benchmark
+    public void sendFullSketchCached() throws IOException {
+        server.sendFullSketch(client);
+    }
+
+    /**
+     * A white page with 3 * size short thick strokes in 8 colors
+     */
+    static int[] doodle(int size) {
+        Random random = new Random(1);
+        int[] cells = new int[size * size];
+        Arrays.fill(cells, 0xFFFFFFFF);
+        for (int stroke = 0; stroke < size * 3; stroke++) {
+            int color = 0xFF000000 | (random.nextInt(8) * 0x1F3F5F);
+            int x = random.nextInt(size), y = random.nextInt(size);
+            int length = random.nextInt(size / 4 + 1), width = 1 + random.nextInt(3);
+            for (int i = 0; i < length && x + i < size; i++) {
+                for (int w = 0; w < width && y + w < size; w++) {
+                    cells[(y + w) * size + x + i] = color;
+                }
+            }
+        }
+        return cells;
+    }
+
+    static int[] noise(int size) {
+        Random random = new Random(1);
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,119 @@
+package kidpaint;
+
+import java.net.Socket;
+
+/**
+ * A connected kid without a socket, for the benchmarks: it counts the
+ * frames the server queues for it and drops them, so a benchmark measures
+ * the server's own work and not the network.
+ */
+public class StubConnection implements ClientConnection {
+    private PaintServerHost server;
+    private String username;
+    private int protocolVersion;
+    private volatile Viewport viewport = Viewport.NONE;
+    private PixelBatch pixelBatch;
+    private final Socket socket = new Socket(); // an unconnected socket is just a key
+    long frames = 0;
+    long bytes = 0;
+
+    public StubConnection(PaintServerHost server, String username, int protocolVersion) {
+        this.server = server;
+        this.username = username;
+        this.protocolVersion = protocolVersion;
+        this.pixelBatch = new PixelBatch(server.canvas.size);
+    }
+
+    /**
+     * Add clients of this version to the server, every one subscribed to the whole canvas
+     */
+    static void connect(PaintServerHost server, int count, int protocolVersion) {
+        Viewport everything = new Viewport(0, 0, server.canvas.tilesAcross - 1, server.canvas.tilesAcross - 1);
+        server.clientLock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                StubConnection client = new StubConnection(server, "kid" + i, protocolVersion);
+                client.setViewport(everything);
+                server.clientMap.put(client.socket(), client);
+            }
+        } finally {
+            server.clientLock.unlock();
+        }
+    }
+
+    @Override
+    public PaintServerHost studio() {
+        return server;
+    }
+
+    @Override
+    public void switchTo(PaintServerHost studio) {
+        server = studio;
+        pixelBatch = new PixelBatch(studio.canvas.size);
+    }
+
+    @Override
+    public Socket socket() {
+        return socket;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setProtocolVersion(int version) {
+        this.protocolVersion = version;
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    @Override
+    public boolean isInSync() {
+        return true;
+    }
+
+    @Override
+    public void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    @Override
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    @Override
+    public PixelBatch pixelBatch() {
+        return pixelBatch;
+    }
+
+    @Override
+    public void send(Frame frame) {
+        frames++;
+        bytes += frame.size();
+    }
+
+    @Override
+    public int backlog() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
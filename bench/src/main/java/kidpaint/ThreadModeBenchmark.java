@@ -0,0 +1,194 @@
+package kidpaint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The threaded server on platform threads against the same code on virtual
+ * threads (--server=virtual), with a real socket for each of 1000 kids:
+ *   stroke - senders kids each send a PIXELS message, and the time is until
+ *            every kid got all of them back, so each one passes through the
+ *            reading threads, clientLock and all the writer threads
+ * The kids are read by one selector thread here, which only counts bytes.
+ *
+ *   java -jar bench/target/benchmarks.jar ThreadModeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss512k")
+public class ThreadModeBenchmark {
+    final static int NAME = 0;
+    final static int PIXELS = 1;
+
+    @Param({"THREADED", "VIRTUAL"})
+    String mode;
+
+    @Param({"1000"})
+    int connections;
+
+    // Kids drawing at the same moment
+    @Param({"1", "32"})
+    int senders;
+
+    // Cells in each stroke
+    @Param({"16"})
+    int cells;
+
+    PaintServerHost server;
+    SocketChannel[] kids;
+    Selector selector;
+    Thread reader;
+    volatile boolean running = true;
+    final AtomicLong received = new AtomicLong();
+    ByteBuffer[] strokes;
+    int color = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        ServerConfig config = new ServerConfig();
+        config.mode = ServerConfig.Mode.valueOf(mode);
+        config.queueLimit = 4096;
+        int port = freePort();
+        server = new PaintServerHost(port, "bench", config);
+        new Thread(server::listen, "listen").start();
+
+        selector = Selector.open();
+        kids = new SocketChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            kids[i] = connect(port);
+            byte[] name = ("kid" + i).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer hello = ByteBuffer.allocate(5 + name.length);
+            hello.put((byte) NAME).putInt(name.length).put(name).flip();
+            write(kids[i], hello);
+            kids[i].configureBlocking(false);
+            kids[i].register(selector, SelectionKey.OP_READ);
+        }
+        reader = new Thread(this::readAll, "kids");
+        reader.setDaemon(true);
+        reader.start();
+        awaitQuiet(); // every kid has the sketch
+
+        strokes = new ByteBuffer[senders];
+        for (int s = 0; s < senders; s++) {
+            strokes[s] = ByteBuffer.allocate(9 + 8 * cells);
+        }
+    }
+
+    private SocketChannel connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+                channel.socket().setTcpNoDelay(true);
+                return channel;
+            } catch (IOException e) {
+                if (attempt == 100) throw e; // the server did not come up
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        running = false;
+        selector.wakeup();
+        server.stopServer();
+        for (SocketChannel kid : kids) {
+            kid.close();
+        }
+    }
+
+    @Benchmark
+    public void stroke() throws IOException {
+        // Every sent stroke comes back to every kid as the same PIXELS message
+        long expected = received.get() + (long) senders * connections * (9 + 8 * cells);
+        for (int s = 0; s < senders; s++) {
+            ByteBuffer stroke = strokes[s];
+            stroke.clear();
+            stroke.put((byte) PIXELS).putInt(0xFF000000 | color++).putInt(cells);
+            for (int i = 0; i < cells; i++) {
+                stroke.putInt((s * cells + i) % 100).putInt(s / 100 % 100);
+            }
+            stroke.flip();
+            write(kids[s], stroke);
+        }
+        while (received.get() < expected) {
+            LockSupport.parkNanos(20_000);
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data); // small messages; the socket buffer takes them at once
+        }
+    }
+
+    /**
+     * Count what the server sends to the kids until torn down
+     */
+    private void readAll() {
+        ByteBuffer scratch = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    int read;
+                    do {
+                        scratch.clear();
+                        read = ((SocketChannel) key.channel()).read(scratch);
+                        if (read > 0) received.addAndGet(read);
+                    } while (read == scratch.capacity());
+                    if (read < 0) key.cancel();
+                }
+            }
+        } catch (IOException e) {
+            // torn down
+        }
+    }
+
+    /**
+     * Wait until nothing has arrived for a while
+     */
+    private void awaitQuiet() throws InterruptedException {
+        long last = -1;
+        while (received.get() != last || last == 0) {
+            last = received.get();
+            Thread.sleep(500);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package kidpaint;
+
+import javafx.scene.paint.Color;
+
+/**
+ * ARGB int to JavaFX Color, so drawing a cell does not create a Color.
+ * An IntIndexMap numbers the colors, no boxing. Bounded: when it holds
+ * capacity colors it is emptied and refilled from the colors in use,
+ * which on a kids' canvas is a few dozen.
+ *
+ * Used on the FX thread only.
+ */
+public class ColorCache {
+    private final IntIndexMap indexes;
+    private final Color[] colors; // by index
+
+    /**
+     * @param capacity colors held before the cache starts over
+     */
+    public ColorCache(int capacity) {
+        indexes = new IntIndexMap(capacity);
+        colors = new Color[capacity];
+    }
+
+    Color get(int argb) {
+        int index = indexes.indexOf(argb);
+        if (index >= 0) return colors[index];
+
+        if (indexes.size() == colors.length) {
+            clear();
+        }
+        Color color = toColor(argb);
+        colors[indexes.put(argb)] = color;
+        return color;
+    }
+
+    void clear() {
+        indexes.clear();
+    }
+
+    int size() {
+        return indexes.size();
+    }
+
+    static Color toColor(int argb) {
+        return Color.rgb(
+                (argb >> 16) & 0xFF,
+                (argb >> 8) & 0xFF,
+                argb & 0xFF,
+                ((argb >> 24) & 0xFF) / 255.0
+        );
+    }
+}
@@ -0,0 +1,70 @@
+package kidpaint;
+
+import java.util.BitSet;
+
+/**
+ * The parts of the client's canvas that changed since the last frame,
+ * in blocks of BLOCK_SIZE x BLOCK_SIZE cells.
+ * Marked when updates are applied and by the drawing tools, taken by render();
+ * used on the FX thread only.
+ */
+public class DirtyRegion {
+    final static int BLOCK_SIZE = 8;
+
+    final int blocksAcross;
+    private BitSet blocks;
+    private boolean all = true; // the first frame draws everything
+
+    public DirtyRegion(int canvasSize) {
+        this.blocksAcross = (canvasSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blocks = new BitSet(blocksAcross * blocksAcross);
+    }
+
+    void markCell(int x, int y) {
+        if (!all) {
+            blocks.set((y / BLOCK_SIZE) * blocksAcross + x / BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Mark the cells (x0, y0) .. (x1, y1), inclusive
+     */
+    void markRect(int x0, int y0, int x1, int y1) {
+        if (all) return;
+        int lastBlock = blocksAcross - 1;
+        int bx0 = Math.max(0, x0 / BLOCK_SIZE), bx1 = Math.min(lastBlock, x1 / BLOCK_SIZE);
+        int by0 = Math.max(0, y0 / BLOCK_SIZE), by1 = Math.min(lastBlock, y1 / BLOCK_SIZE);
+        for (int by = by0; by <= by1; by++) {
+            blocks.set(by * blocksAcross + bx0, by * blocksAcross + bx1 + 1);
+        }
+    }
+
+    /**
+     * Redraw everything next frame (resize, zoom, pan, a whole new sketch)
+     */
+    void markAll() {
+        all = true;
+        blocks.clear();
+    }
+
+    boolean isClean() {
+        return !all && blocks.isEmpty();
+    }
+
+    /**
+     * Take the dirty blocks and start over. Copies into the caller's set,
+     * so once both sets have grown a frame allocates nothing.
+     * @param into receives the dirty block indexes (by * blocksAcross + bx)
+     * @return true if everything is dirty; into is left empty then
+     */
+    boolean takeInto(BitSet into) {
+        into.clear();
+        if (all) {
+            all = false;
+            return true;
+        }
+        into.or(blocks);
+        blocks.clear();
+        return false;
+    }
+}
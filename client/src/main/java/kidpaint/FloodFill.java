@@ -0,0 +1,145 @@
+package kidpaint;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Bucket fill for the client: a span (scanline) fill with an int[] stack.
+ * Each step fills a whole horizontal run of cells and pushes one seed per
+ * run of matching cells above and below it, so the stack holds seeds for
+ * runs, not cells. Runs of neighbouring rows can push seeds into the same
+ * run; the seeds after the first find it filled when popped and are skipped,
+ * so every cell is filled once. Nothing is allocated once the arrays have grown.
+ * The filled cells are kept as row runs, ready for CellBuffer.addRun().
+ *
+ * Not thread safe: the client keeps one for the FX thread.
+ */
+public class FloodFill {
+    private int[] stack = new int[256]; // seeds as x, y pairs
+    private int stackSize = 0;
+    private int[] runs = new int[3 * 64]; // x, y, length of every filled run
+    private int runCount = 0;
+    private int cellCount = 0;
+    private BitSet held = null; // tiles the current fill may change, null = all
+
+    /**
+     * Fill the area of cells that have the color of (x, y) and are connected
+     * to it (4-neighbourhood) with color.
+     * @return the number of cells changed
+     */
+    int fill(TiledCanvas canvas, int x, int y, int color) {
+        return fill(canvas, x, y, color, null);
+    }
+
+    /**
+     * Like fill(canvas, x, y, color), but only over the tiles in heldTiles
+     * (by tileY * tilesAcross + tileX), e.g. the ones a version 3 client has
+     * received: the cells of any other tile are treated as walls.
+     * @param heldTiles null for all tiles
+     */
+    int fill(TiledCanvas canvas, int x, int y, int color, BitSet heldTiles) {
+        reset();
+        held = heldTiles;
+        if (x < 0 || x >= canvas.size || y < 0 || y >= canvas.size || !isHeld(canvas, x, y)) return 0;
+        int target = canvas.get(x, y);
+        if (target == color) return 0;
+
+        int max = canvas.size - 1;
+        push(x, y);
+        while (stackSize > 0) {
+            stackSize -= 2;
+            int seedX = stack[stackSize];
+            int seedY = stack[stackSize + 1];
+            if (canvas.get(seedX, seedY) != target) continue; // filled from another seed
+
+            int left = seedX;
+            while (left > 0 && matches(canvas, left - 1, seedY, target)) left--;
+            int right = seedX;
+            while (right < max && matches(canvas, right + 1, seedY, target)) right++;
+
+            for (int i = left; i <= right; i++) {
+                canvas.set(i, seedY, color);
+            }
+            addRun(left, seedY, right - left + 1);
+
+            if (seedY > 0) pushSpans(canvas, left, right, seedY - 1, target);
+            if (seedY < max) pushSpans(canvas, left, right, seedY + 1, target);
+        }
+        held = null;
+        return cellCount;
+    }
+
+    /**
+     * Forget the runs of the last fill
+     */
+    void reset() {
+        runCount = 0;
+        cellCount = 0;
+        stackSize = 0;
+    }
+
+    /**
+     * Push one seed for every run of target cells in row y between left and right
+     */
+    private void pushSpans(TiledCanvas canvas, int left, int right, int y, int target) {
+        boolean inSpan = false;
+        for (int x = left; x <= right; x++) {
+            boolean matches = matches(canvas, x, y, target);
+            if (matches && !inSpan) {
+                push(x, y);
+            }
+            inSpan = matches;
+        }
+    }
+
+    private boolean matches(TiledCanvas canvas, int x, int y, int target) {
+        return canvas.get(x, y) == target && isHeld(canvas, x, y);
+    }
+
+    private boolean isHeld(TiledCanvas canvas, int x, int y) {
+        return held == null
+                || held.get(y / TiledCanvas.TILE_SIZE * canvas.tilesAcross + x / TiledCanvas.TILE_SIZE);
+    }
+
+    private void push(int x, int y) {
+        if (stackSize + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+    }
+
+    private void addRun(int x, int y, int length) {
+        if (runCount * 3 + 3 > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[runCount * 3] = x;
+        runs[runCount * 3 + 1] = y;
+        runs[runCount * 3 + 2] = length;
+        runCount++;
+        cellCount += length;
+    }
+
+    /**
+     * Runs filled by the last fill(), in the order they were filled
+     */
+    int runCount() {
+        return runCount;
+    }
+
+    int runX(int run) {
+        return runs[run * 3];
+    }
+
+    int runY(int run) {
+        return runs[run * 3 + 1];
+    }
+
+    int runLength(int run) {
+        return runs[run * 3 + 2];
+    }
+
+    int cellCount() {
+        return cellCount;
+    }
+}
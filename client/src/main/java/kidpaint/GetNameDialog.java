@@ -1,3 +1,5 @@
+package kidpaint;
+
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
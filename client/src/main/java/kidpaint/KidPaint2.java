@@ -1,3 +1,5 @@
+package kidpaint;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 import java.io.IOException; // ADD THIS IMPORT
@@ -30,11 +32,14 @@ public class KidPaint2 extends Application {
                 // --- HOST LOGIC ---
                 System.out.println("Starting server...");
                 // Pass username as the studio name
-                server = new PaintServerHost(SERVER_PORT, username + "'s Studio");
+                // Server mode comes from the command line, e.g. --server=nio
+                ServerConfig config = ServerConfig.fromArgs(getParameters().getNamed());
+                server = new PaintServerHost(SERVER_PORT, username + "'s Studio", config);
                 Thread serverThread = new Thread(server);
                 serverThread.start();
 
-                MainWindow mainWindow = new MainWindow(stage, username, "127.0.0.1", SERVER_PORT);
+                MainWindow mainWindow = new MainWindow(stage, username, "127.0.0.1", SERVER_PORT, config.tcpNoDelay);
+                setOptions(mainWindow);
 
             } else if (choice.equals("JOIN")) {
                 // --- JOIN LOGIC ---
@@ -48,7 +53,10 @@ public class KidPaint2 extends Application {
                     System.out.println("Joining studio: " + selectedStudio.getStudioName());
                     MainWindow mainWindow = new MainWindow(stage, username,
                             selectedStudio.getIpAddress(),
-                            selectedStudio.getPort());
+                            selectedStudio.getPort(),
+                            ServerConfig.fromArgs(getParameters().getNamed()).tcpNoDelay,
+                            selectedStudio.getStudioName());
+                    setOptions(mainWindow);
                 } else {
                     // If user closed the list, exit
                     System.out.println("No studio selected. Exiting.");
@@ -64,6 +72,18 @@ public class KidPaint2 extends Application {
         }
     }
 
+    /**
+     * --renderer=ovals|pixels|beads picks how the canvas is drawn (F2 switches at run time),
+     * --debug=true prints the size of every message sent and the frame times
+     */
+    void setOptions(MainWindow mainWindow) {
+        String renderer = getParameters().getNamed().get("renderer");
+        if (renderer != null) {
+            mainWindow.setRenderer(renderer.trim().toLowerCase());
+        }
+        mainWindow.debug = Boolean.parseBoolean(getParameters().getNamed().get("debug"));
+    }
+
     @Override
     public void stop() {
         if (server != null) {
@@ -0,0 +1,1144 @@
+package kidpaint;
+
+import javafx.animation.AnimationTimer;
+import javafx.fxml.FXMLLoader;
+import javafx.fxml.FXML;
+
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelReader;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.stage.FileChooser;
+import javafx.scene.Parent;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream; // <-- ADD THIS IMPORT
+import java.io.FileOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class MainWindow {
+    final int NAME = 0;
+    final int PIXELS = 1;
+    final int MESSAGE = 2;
+    final int FULL_SKETCH = 3;
+    final int FULL_SKETCH_UPDATE = 4;
+    final int VERSION = 5;
+    final int PIXELS_RUNS = 6;
+    final int SKETCH_PACKED = 7;
+    final int SKETCH_DIFF = 8;
+    final int CANVAS_INFO = 9;
+    final int SUBSCRIBE = 10;
+    final int TILE = 11;
+    final int SEQUENCE = 12;
+    final int RESUME = 13;
+    final static int PROTOCOL_VERSION = 4; // highest version this client speaks
+    @FXML
+    ChoiceBox<String> chbMode;
+    Socket socket;
+    DataInputStream in;   // receiving thread only
+    OutputStream out;
+    String ip;
+    int port;
+    boolean tcpNoDelay;
+    String studio; // asked for in the NAME message, for servers hosting several studios; may be null
+    // After a dropped connection the receiving thread tries this often, this far apart
+    final static int RECONNECT_ATTEMPTS = 10;
+    final static long RECONNECT_DELAY_MILLIS = 1000;
+    volatile boolean closing = false; // no reconnecting once set
+    MessageBuilder message = new MessageBuilder(4096); // reused for every message we send
+    PixelCodec codec = new PixelCodec();
+    SketchCodec sketchCodec = new SketchCodec();          // used on the FX thread when sending
+    SketchCodec receiveSketchCodec = new SketchCodec();   // used by the receiving thread
+    volatile int protocolVersion = 1; // raised when the server answers with VERSION
+    Viewport viewport = Viewport.NONE; // tiles subscribed to (version 3)
+    BitSet heldTiles = new BitSet();   // tiles received and still in the viewport, by tileY * tilesAcross + tileX
+    File pendingSave;                  // saved once every tile is here (version 3)
+    long lastSequence = -1; // newest server change we have (version 4), sent in RESUME after a reconnect
+
+    // The receiving thread never touches the canvas or the UI. It decodes each message
+    // into an update, and the FX thread applies all waiting updates once per pulse.
+    // Everything below (data, numPixels, viewport, ...) is only used on the FX thread.
+    interface Update {
+        void apply() throws IOException;
+    }
+    ConcurrentLinkedQueue<Update> updates = new ConcurrentLinkedQueue<>();
+    ConcurrentLinkedQueue<String> chat = new ConcurrentLinkedQueue<>();
+    final static int MAX_UPDATES_PER_PULSE = 10000; // the rest waits for the next pulse
+    StringBuilder chatBatch = new StringBuilder();
+
+    @FXML
+    Button btnSend;
+
+    @FXML
+    TextField txtMsg;
+
+    @FXML
+    TextArea areaMsg;
+
+    @FXML
+    Canvas canvas;
+
+    @FXML
+    Pane container;
+
+    @FXML
+    Pane panePicker;
+
+    @FXML
+    Pane paneColor;
+
+    @FXML
+    Button btnSave;
+
+    @FXML
+    Button btnLoad;
+
+    @FXML
+    Button btnClear;
+
+    String username;
+    int numPixels = 10;
+    Stage stage;
+    AnimationTimer animationTimer;
+    TiledCanvas data;
+    DirtyRegion dirty = new DirtyRegion(numPixels); // what render() has to redraw; replaced with data
+    // How cells are drawn: "ovals" (vector ovals), "pixels" (one scaled image) or "beads" (image plus round overlay)
+    final static String[] RENDERERS = {"ovals", "pixels", "beads"};
+    String renderer = "ovals";
+    OvalRenderer ovalRenderer = new OvalRenderer();
+    PixelBufferRenderer pixelRenderer = new PixelBufferRenderer();
+    BitSet dirtyBlocks = new BitSet();
+    long renderNanos; // frame time statistics, printed every FRAME_STATS_INTERVAL drawn frames in debug mode
+    int renderedFrames;
+    final static int FRAME_STATS_INTERVAL = 300;
+    double pixelSize, padSize, startX, startY; // startX/Y: screen position of cell (0, 0)
+    // Zoom and pan: zoom 1 fits the whole canvas in the pad, the view is centered on (centerCol, centerRow)
+    final static double MIN_CELL_PIXELS = 4;  // never zoom out further, so a frame draws at most a screenful
+    final static double MAX_CELL_PIXELS = 64;
+    double zoom = 1;
+    double centerCol, centerRow;
+    int viewSize = -1; // numPixels the view was set up for
+    double panX, panY; // last mouse position while panning
+    int selectedColorARGB;
+    boolean isPenMode = true;
+    boolean debug = false; // print message sizes and frame times (--debug=true)
+    CellBuffer filledPixels = new CellBuffer(numPixels); // cells changed by the pen or bucket, not sent yet
+    FloodFill bucket = new FloodFill();
+    // A pen stroke is sent in parts while it is drawn: every STROKE_FLUSH_NANOS, or sooner once
+    // STROKE_FLUSH_CELLS cells are waiting, so at most ~50 messages a second per drawing kid
+    final static long STROKE_FLUSH_NANOS = 20 * 1000 * 1000L;
+    final static int STROKE_FLUSH_CELLS = 256;
+    boolean isStroking;   // primary button held in pen mode
+    long lastStrokeFlush; // System.nanoTime() of the last part sent
+
+    final static int NO_CELL = Integer.MIN_VALUE;
+    int lastRow = NO_CELL; // cell of the last pen sample, may be off the canvas
+    int lastCol = NO_CELL;
+
+    public MainWindow(Stage stage, String username, String ip, int port) throws IOException {
+        this(stage, username, ip, port, true);
+    }
+
+    public MainWindow(Stage stage, String username, String ip, int port, boolean tcpNoDelay) throws IOException {
+        this(stage, username, ip, port, tcpNoDelay, null);
+    }
+
+    public MainWindow(Stage stage, String username, String ip, int port, boolean tcpNoDelay, String studio) throws IOException {
+        this.username = username;
+        this.ip = ip;
+        this.port = port;
+        this.tcpNoDelay = tcpNoDelay;
+        this.studio = studio;
+
+        socket = new Socket(ip, port);
+        socket.setTcpNoDelay(tcpNoDelay);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        out = socket.getOutputStream();
+        sendName(message, out);
+
+
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("mainWindownUI.fxml"));
+        loader.setController(this);
+        Parent root = loader.load();
+        Scene scene = new Scene(root);
+
+        this.stage = stage;
+
+        stage.setScene(scene);
+        stage.setMinWidth(scene.getWidth());
+        stage.setMinHeight(scene.getHeight());
+
+        canvas.widthProperty().bind(container.widthProperty());
+        canvas.heightProperty().bind(container.heightProperty());
+        canvas.widthProperty().addListener(w->onCanvasSizeChange());
+        canvas.heightProperty().addListener(h->onCanvasSizeChange());
+
+        btnSend.setOnAction(event -> {
+            sendText(txtMsg.getText());
+            txtMsg.clear();
+        });
+
+        stage.setOnCloseRequest(event -> quit());
+
+        // F2 switches the renderer, to compare frame times
+        scene.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.F2) {
+                int next = (Arrays.asList(RENDERERS).indexOf(renderer) + 1) % RENDERERS.length;
+                setRenderer(RENDERERS[next]);
+            }
+        });
+
+        stage.show();
+        initial();
+
+        animationTimer.start();
+
+        Thread thread = new Thread(()->{
+            receiveData();
+        });
+        thread.start();
+    }
+
+    void sendName(MessageBuilder message, OutputStream out) throws IOException {
+        byte[] name = username.getBytes();
+        byte[] studioName = studio == null ? new byte[0] : studio.getBytes();
+        message.begin(NAME);               //indicate that I am sending a name
+        message.writeInt(name.length + 2 + studioName.length); //send the length of username + version + studio
+        message.writeBytes(name, 0, name.length); // send the bytes of the username
+        message.writeByte(0);              //then a 0 byte and the protocol version we speak
+        message.writeByte(PROTOCOL_VERSION);
+        message.writeBytes(studioName, 0, studioName.length); //and the studio to join, if any
+        message.writeTo(out);              //send everything with one write
+    }
+
+    void sendText(String text) {
+        try {
+            byte[] bytes = text.getBytes();
+            message.begin(MESSAGE);
+            message.writeInt(bytes.length);
+            message.writeBytes(bytes, 0, bytes.length);
+            System.out.println(text);
+
+            message.writeTo(out);
+        } catch (IOException ex) {
+            System.out.println("Oh! My connection is dropped!");
+        }
+
+    }
+
+    /**
+     * The receiving thread: read messages until the connection drops,
+     * then try to reconnect and carry on
+     */
+    void receiveData() {
+        while (true) {
+            try {
+                readMessages();
+            } catch (IOException ex) {
+                System.out.println("Disconnected! " + ex.getMessage());
+            }
+            if (closing || !reconnect()) {
+                System.out.println("Disconnected! Bye!");
+                return;
+            }
+        }
+    }
+
+    void readMessages() throws IOException {
+        while (true) {
+            int dataType = in.read();
+            if (dataType < 0) {
+                throw new IOException("Server closed the connection");
+            }
+            switch (dataType) {
+                case VERSION:
+                    protocolVersion = in.readInt();
+                    System.out.println("Server speaks protocol version " + protocolVersion);
+                    break;
+                case PIXELS:
+                    receivePixels();
+                    break;
+                case PIXELS_RUNS:
+                    receivePixelRuns();
+                    break;
+                case SKETCH_PACKED:
+                    receivePackedSketch();
+                    break;
+                case SKETCH_DIFF:
+                    receiveSketchDiff();
+                    break;
+                case CANVAS_INFO:
+                    receiveCanvasInfo();
+                    break;
+                case TILE:
+                    receiveTile();
+                    break;
+                case SEQUENCE:
+                    long sequence = in.readLong();
+                    updates.add(() -> lastSequence = sequence);
+                    break;
+                case MESSAGE:
+                    receiveMsg();
+                    break;
+                case FULL_SKETCH:
+                    receiveFullSketch();
+                    break;
+                // ADD THIS CASE
+                case FULL_SKETCH_UPDATE:
+                    System.out.println("Receiving full sketch update from server...");
+                    receiveFullSketch(); // We can reuse this method!
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Runs on the receiving thread after the connection dropped: connect again
+     * and send our name. The server answers with CANVAS_INFO, and the FX thread
+     * then asks to resume where we left off (see receiveCanvasInfo()).
+     * @return false if the server did not come back
+     */
+    boolean reconnect() {
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+                Socket next = new Socket(ip, port);
+                next.setTcpNoDelay(tcpNoDelay);
+                OutputStream nextOut = next.getOutputStream();
+                sendName(new MessageBuilder(64), nextOut);
+                in = new DataInputStream(new BufferedInputStream(next.getInputStream(), 64 * 1024));
+                updates.add(() -> {
+                    socket = next;
+                    out = nextOut;
+                });
+                System.out.println("Reconnected to " + ip + ":" + port);
+                return true;
+            } catch (IOException ex) {
+                System.out.println("Reconnect attempt " + attempt + " failed: " + ex.getMessage());
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    void receiveMsg() throws IOException {
+        int size = in.readInt();
+        byte[] buffer = new byte[size];
+        in.readFully(buffer, 0, size);
+
+        String msg = new String(buffer, 0, size);
+
+        chat.add(msg);
+    }
+
+    void receivePixels() throws IOException{
+        int color = in.readInt();
+        int size = in.readInt();
+        int[] cells = new int[2 * size];
+        for(int i=0; i<size; i++){
+            cells[2 * i] = in.readInt();     // x
+            cells[2 * i + 1] = in.readInt(); // y
+        }
+
+        updates.add(() -> {
+            for (int i = 0; i < cells.length; i += 2) {
+                setCell(cells[i], cells[i + 1], color);
+            }
+        });
+    }
+
+    /**
+     * Apply a cell received from the server, unless it is outside the canvas
+     * or (version 3) outside the tiles we subscribed to
+     */
+    void setCell(int x, int y, int color) {
+        TiledCanvas canvas = data;
+        if (!canvas.contains(x, y)) return;
+        if (protocolVersion >= 3 && !viewport.containsCell(x, y)) return;
+        canvas.set(x, y, color);
+        dirty.markCell(x, y);
+    }
+
+    void receivePixelRuns() throws IOException {
+        int color = in.readInt();
+        int len = in.readInt();
+        byte[] buffer = new byte[len];
+        in.readFully(buffer, 0, len);
+
+        updates.add(() -> PixelCodec.decode(buffer, len, (x, y) -> setCell(x, y, color)));
+    }
+
+    void receiveSketchDiff() throws IOException {
+        int size = in.readInt();
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("Bad sketch diff length");
+        }
+        byte[] buffer = new byte[len];
+        in.readFully(buffer, 0, len);
+
+        updates.add(() -> SketchCodec.applyDiff(size, buffer, numPixels, this::setCell));
+    }
+
+    /**
+     * Version 3 servers send the canvas size instead of the sketch;
+     * the tiles come once we subscribe to them
+     */
+    void receiveCanvasInfo() throws IOException {
+        int size = in.readInt();
+        int tileSize = in.readInt();
+        if (tileSize != TiledCanvas.TILE_SIZE) {
+            throw new IOException("Server uses " + tileSize + " cell tiles, we need " + TiledCanvas.TILE_SIZE);
+        }
+        System.out.println("Server canvas is " + size + "x" + size + ".");
+        updates.add(() -> {
+            if (protocolVersion >= 4 && lastSequence >= 0 && size == numPixels && !viewport.isEmpty()) {
+                // A reconnect: keep our tiles and get only what changed in them
+                sendResume();
+                subscribeVisible();
+                return;
+            }
+            viewport = Viewport.NONE;
+            lastSequence = -1;
+            replaceCanvas(new TiledCanvas(size));
+        });
+    }
+
+    /**
+     * Show a new canvas; adjusts the view if the size changed
+     */
+    void replaceCanvas(TiledCanvas canvas) {
+        boolean resized = canvas.size != numPixels;
+        heldTiles.clear();
+        if (pendingSave != null) {
+            areaMsg.appendText("The canvas was replaced before it could be saved, please save again.\n");
+            pendingSave = null;
+        }
+        dirty = new DirtyRegion(canvas.size);
+        data = canvas;
+        numPixels = canvas.size;
+        if (resized) {
+            filledPixels = new CellBuffer(numPixels); // unsent cells of the old canvas mean nothing now
+            System.out.println("Server grid size is " + numPixels + ". Adjusting client.");
+        }
+        onCanvasSizeChange();
+    }
+
+    void receiveTile() throws IOException {
+        int tileX = in.readInt();
+        int tileY = in.readInt();
+        int[] cells = receiveSketchCodec.readSnapshot(in, TiledCanvas.TILE_SIZE);
+        if (cells == null) {
+            throw new IOException("Bad tile size " + receiveSketchCodec.lastSize());
+        }
+        updates.add(() -> {
+            TiledCanvas canvas = data;
+            if (tileX < 0 || tileY < 0 || tileX >= canvas.tilesAcross || tileY >= canvas.tilesAcross) {
+                throw new IOException("Bad tile (" + tileX + ", " + tileY + ")");
+            }
+            if (viewport.containsTile(tileX, tileY)) {
+                canvas.setTile(tileX, tileY, cells);
+                markTile(tileX, tileY);
+                heldTiles.set(tileY * canvas.tilesAcross + tileX);
+                if (pendingSave != null && holdsAllTiles()) {
+                    writeSketch(pendingSave);
+                    pendingSave = null;
+                    subscribeVisible(); // back to the tiles on screen
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the FX thread before every frame: apply what the receiving
+     * thread decoded since the last pulse, and add all new chat lines at once.
+     */
+    void applyUpdates() {
+        Update update;
+        int applied = 0;
+        while (applied++ < MAX_UPDATES_PER_PULSE && (update = updates.poll()) != null) {
+            try {
+                update.apply();
+            } catch (IOException ex) {
+                System.out.println("Bad update from the server: " + ex.getMessage());
+                quitConnection();
+                return;
+            }
+        }
+
+        String line;
+        while ((line = chat.poll()) != null) {
+            chatBatch.append(line).append('\n');
+        }
+        if (chatBatch.length() > 0) {
+            areaMsg.appendText(chatBatch.toString());
+            chatBatch.setLength(0);
+        }
+    }
+
+    /**
+     * Drop the connection; the receiving thread notices and stops
+     */
+    void quitConnection() {
+        closing = true; // the server sent something we cannot read, trying again would not help
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    void markTile(int tileX, int tileY) {
+        int x = tileX * TiledCanvas.TILE_SIZE;
+        int y = tileY * TiledCanvas.TILE_SIZE;
+        dirty.markRect(x, y, x + TiledCanvas.TILE_SIZE - 1, y + TiledCanvas.TILE_SIZE - 1);
+    }
+
+    /**
+     * Subscribe to the tiles on screen, plus one tile around them so short pans
+     * do not show empty tiles. Cheap when the tiles did not change.
+     */
+    void subscribeVisible() {
+        if (protocolVersion < 3 || data.size != numPixels) return;
+        if (pendingSave != null) return; // keeps the whole canvas until it is saved
+        int margin = TiledCanvas.TILE_SIZE;
+        subscribe(Viewport.ofCells(firstVisibleCol() - margin, firstVisibleRow() - margin,
+                lastVisibleCol() + margin, lastVisibleRow() + margin, data.tilesAcross));
+    }
+
+    /**
+     * Tell the server which changes we have: the tiles of our viewport up to lastSequence
+     */
+    void sendResume() {
+        System.out.println("Resuming after change " + lastSequence);
+        message.begin(RESUME);
+        message.writeLong(lastSequence);
+        message.writeInt(viewport.firstTileX);
+        message.writeInt(viewport.firstTileY);
+        message.writeInt(viewport.lastTileX);
+        message.writeInt(viewport.lastTileY);
+        try {
+            message.writeTo(out);
+        } catch (IOException ex) {
+            System.out.println("Oh! My connection is dropped!");
+        }
+    }
+
+    /**
+     * Ask the server for the tiles of a new viewport and forget the ones that left it.
+     * Runs on the FX thread, like every other send.
+     */
+    void subscribe(Viewport next) {
+        Viewport previous = viewport;
+        if (next.sameAs(previous)) return;
+        for (int tileY = previous.firstTileY; tileY <= previous.lastTileY; tileY++) {
+            for (int tileX = previous.firstTileX; tileX <= previous.lastTileX; tileX++) {
+                if (!next.containsTile(tileX, tileY)) {
+                    data.clearTile(tileX, tileY);
+                    heldTiles.clear(tileY * data.tilesAcross + tileX);
+                    markTile(tileX, tileY);
+                }
+            }
+        }
+        viewport = next;
+
+        message.begin(SUBSCRIBE);
+        message.writeInt(next.firstTileX);
+        message.writeInt(next.firstTileY);
+        message.writeInt(next.lastTileX);
+        message.writeInt(next.lastTileY);
+        try {
+            message.writeTo(out);
+        } catch (IOException ex) {
+            System.out.println("Oh! My connection is dropped!");
+        }
+    }
+
+    /**
+     * Update canvas info when the window is resized
+     */
+    void onCanvasSizeChange() {
+        if (viewSize != numPixels) {
+            // New canvas: show all of it, or as much as fits at the smallest cell size
+            viewSize = numPixels;
+            zoom = 1;
+            centerCol = numPixels / 2.0;
+            centerRow = numPixels / 2.0;
+        }
+        double w = canvas.getWidth();
+        double h = canvas.getHeight();
+        padSize = Math.min(w, h);
+        if (padSize <= 0) return; // not laid out yet
+        double fit = padSize / numPixels;
+        zoom = Math.max(minZoom(fit), Math.min(maxZoom(fit), zoom));
+        pixelSize = fit * zoom;
+        centerCol = Math.max(0, Math.min(numPixels, centerCol));
+        centerRow = Math.max(0, Math.min(numPixels, centerRow));
+        startX = w / 2 - centerCol * pixelSize;
+        startY = h / 2 - centerRow * pixelSize;
+        dirty.markAll(); // every cell moved
+        subscribeVisible();
+    }
+
+    double minZoom(double fit) {
+        return Math.max(1, MIN_CELL_PIXELS / fit);
+    }
+
+    double maxZoom(double fit) {
+        return Math.max(minZoom(fit), MAX_CELL_PIXELS / fit);
+    }
+
+    /**
+     * Zoom by factor, keeping the cell under the mouse where it is
+     */
+    void zoomAt(double mx, double my, double factor) {
+        double col = (mx - startX) / pixelSize;
+        double row = (my - startY) / pixelSize;
+        double fit = padSize / numPixels;
+        zoom = Math.max(minZoom(fit), Math.min(maxZoom(fit), zoom * factor));
+        double size = fit * zoom;
+        centerCol = col - (mx - canvas.getWidth() / 2) / size;
+        centerRow = row - (my - canvas.getHeight() / 2) / size;
+        onCanvasSizeChange();
+    }
+
+    void panBy(double dx, double dy) {
+        centerCol -= dx / pixelSize;
+        centerRow -= dy / pixelSize;
+        onCanvasSizeChange();
+    }
+
+    // The range of cells that are at least partly on screen
+    int firstVisibleCol() {
+        return Math.max(0, (int) Math.floor(-startX / pixelSize));
+    }
+
+    int lastVisibleCol() {
+        return Math.min(numPixels - 1, (int) Math.floor((canvas.getWidth() - startX) / pixelSize));
+    }
+
+    int firstVisibleRow() {
+        return Math.max(0, (int) Math.floor(-startY / pixelSize));
+    }
+
+    int lastVisibleRow() {
+        return Math.min(numPixels - 1, (int) Math.floor((canvas.getHeight() - startY) / pixelSize));
+    }
+
+    /**
+     * terminate this program
+     */
+    void quit() {
+        closing = true;
+        System.out.println("Bye bye");
+        stage.close();
+        System.exit(0);
+    }
+
+    /**
+     * Initialize UI components
+     * @throws IOException
+     */
+    void initial() throws IOException {
+        data = new TiledCanvas(numPixels);
+
+        animationTimer = new AnimationTimer() {
+            @Override
+            public void handle(long l) {
+                if (isStroking && l - lastStrokeFlush >= STROKE_FLUSH_NANOS) {
+                    flushStroke();
+                }
+                applyUpdates();
+                render();
+            }
+        };
+
+        chbMode.setValue("Pen");
+
+        // Wheel zooms, dragging with the right or middle button pans
+        canvas.setOnScroll(event -> {
+            if (event.getDeltaY() != 0) {
+                zoomAt(event.getX(), event.getY(), Math.pow(1.1, event.getDeltaY() / 40));
+            }
+        });
+
+        canvas.setOnMousePressed(event -> {
+            if (!event.isPrimaryButtonDown()) {
+                panX = event.getX();
+                panY = event.getY();
+                return;
+            }
+            isPenMode = chbMode.getValue().equals("Pen");
+            filledPixels.clear();
+            lastRow = NO_CELL;
+            lastCol = NO_CELL;
+            if (isPenMode) {
+                isStroking = true;
+                lastStrokeFlush = System.nanoTime();
+                penToData(event.getX(), event.getY());
+            }
+        });
+
+        canvas.setOnMouseDragged(event -> {
+            if (!event.isPrimaryButtonDown()) {
+                panBy(event.getX() - panX, event.getY() - panY);
+                panX = event.getX();
+                panY = event.getY();
+                return;
+            }
+            if (isPenMode)
+                penToData(event.getX(), event.getY());
+        });
+
+        canvas.setOnMouseReleased(event->{
+            if (event.getButton() != MouseButton.PRIMARY) return;
+            if (isPenMode) {
+                flushStroke(); // the rest of the stroke
+                isStroking = false;
+            } else {
+                bucketToData(event.getX(), event.getY());
+                try {
+                    sendPixelChanges();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            lastRow = NO_CELL;
+            lastCol = NO_CELL;
+        });
+
+        btnSave.setOnAction(e -> saveSketch());
+        btnLoad.setOnAction(e -> loadSketch());
+        btnClear.setOnAction(e -> clearSketch());
+        initColorMap();
+    }
+
+    /**
+     * Opens a FileChooser to save the sketch data to a file.
+     * A version 3 client only has the tiles around its view, so it first
+     * subscribes to the whole canvas and saves once every tile arrived.
+     */
+    void saveSketch() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Sketch");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Sketch Data", "*.dat"));
+        File file = fileChooser.showSaveDialog(stage);
+
+        if (file == null) return;
+        if (protocolVersion >= 3 && !holdsAllTiles()) {
+            areaMsg.appendText("Fetching the whole canvas from the server to save it...\n");
+            pendingSave = file;
+            int last = data.tilesAcross - 1;
+            subscribe(new Viewport(0, 0, last, last));
+            return;
+        }
+        writeSketch(file);
+    }
+
+    /**
+     * @return true if every tile of the canvas arrived and is still held (version 3)
+     */
+    boolean holdsAllTiles() {
+        return heldTiles.cardinality() == data.tilesAcross * data.tilesAcross;
+    }
+
+    /**
+     * Write the canvas: int size, then size*size colors row by row
+     */
+    void writeSketch(File file) {
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
+            dos.writeInt(numPixels); // Write dimension
+            for (int row = 0; row < numPixels; row++) {
+                for (int col = 0; col < numPixels; col++) {
+                    dos.writeInt(data.get(col, row));
+                }
+            }
+            System.out.println("Sketch saved to: " + file.getPath());
+            if (protocolVersion >= 3) {
+                areaMsg.appendText("Sketch saved to " + file.getName() + "\n");
+            }
+        } catch (IOException ex) {
+            System.out.println("Error saving sketch: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Opens a FileChooser to load sketch data, updates local canvas,
+     * and sends the new sketch to the server.
+     */
+    void loadSketch() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Load Sketch");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Sketch Data", "*.dat"));
+        File file = fileChooser.showOpenDialog(stage);
+
+        if (file != null) {
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+                int size = dis.readInt();
+                if (size != numPixels) {
+                    System.out.println("File has different dimensions. Skipping load.");
+                    // Optionally, you could handle resizing here
+                    return;
+                }
+
+                // Read data into local array
+                for (int row = 0; row < numPixels; row++) {
+                    for (int col = 0; col < numPixels; col++) {
+                        data.set(col, row, dis.readInt());
+                    }
+                }
+                dirty.markAll();
+                System.out.println("Sketch loaded from: " + file.getPath());
+
+                // Now, send this full sketch to the server
+                sendFullSketchUpdate();
+
+            } catch (IOException ex) {
+                System.out.println("Error loading sketch: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Clears the entire sketch by setting all pixels to 0 (black)
+     * and sends the update to the server.
+     */
+    void clearSketch() {
+        System.out.println("Clearing sketch...");
+
+        // Set every cell to 0 (black)
+        data.clear();
+        dirty.markAll();
+
+        // Send this "cleared" sketch to the server
+        try {
+            sendFullSketchUpdate();
+        } catch (IOException ex) {
+            System.out.println("Error sending clear sketch: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Sends the entire current 'data' array to the server.
+     */
+    void sendFullSketchUpdate() throws IOException {
+        System.out.println("Sending full sketch update to server...");
+        if (protocolVersion >= 2) {
+            message.begin(SKETCH_PACKED);
+            sketchCodec.writeSnapshot(message, data.toArray(), numPixels);
+            message.writeTo(out);
+            System.out.println("Packed sketch update sent (" + message.size() + " bytes).");
+            return;
+        }
+        message.begin(FULL_SKETCH_UPDATE);
+        message.writeInt(numPixels);
+
+        for (int row = 0; row < numPixels; row++) {
+            for (int col = 0; col < numPixels; col++) {
+                message.writeInt(data.get(col, row));
+            }
+        }
+        message.writeTo(out);
+        System.out.println("Full sketch update sent.");
+    }
+
+    void sendPixelChanges() throws IOException {
+        if (protocolVersion >= 2) {
+            sendPixelRuns();
+            return;
+        }
+        message.begin(PIXELS);                  // message type
+        message.writeInt(selectedColorARGB);    //send color
+        message.writeInt(filledPixels.count()); //send how many pixels are modified
+
+        if (debug) {
+            System.out.println("# of pixels sent: " + filledPixels.count());
+        }
+        for (int i = 0; i < filledPixels.count(); i++) { //add pixel positions one-by-one
+            message.writeInt(filledPixels.x(i));
+            message.writeInt(filledPixels.y(i));
+        }
+        message.writeTo(out);                   //send the whole message with one write
+    }
+
+    /**
+     * Send the part of the pen stroke drawn since the last call, so the others
+     * see the stroke while it is being drawn
+     */
+    void flushStroke() {
+        lastStrokeFlush = System.nanoTime();
+        if (filledPixels.isEmpty()) return;
+        try {
+            sendPixelChanges();
+        } catch (IOException ex) {
+            System.out.println("Error sending stroke: " + ex.getMessage());
+        }
+        filledPixels.clear();
+    }
+
+    /**
+     * Same as sendPixelChanges(), in the compact PIXELS_RUNS format
+     */
+    void sendPixelRuns() throws IOException {
+        codec.reset();
+        codec.addAll(filledPixels);
+
+        message.begin(PIXELS_RUNS);
+        message.writeInt(selectedColorARGB);
+        codec.writeTo(message);
+
+        if (debug) {
+            System.out.println("# of pixels sent: " + filledPixels.count() + " in " + message.size() + " bytes");
+        }
+        message.writeTo(out);
+    }
+
+    /**
+     * Initialize color map
+     * @throws IOException
+     */
+    void initColorMap() throws IOException {
+        Image image = new Image(getClass().getResource("color_map.png").toExternalForm());
+        ImageView imageView = new ImageView(image);
+
+        imageView.setFitHeight(30.0);
+        imageView.setPreserveRatio(true);
+        panePicker.getChildren().add(imageView);
+
+        double imageWidth = image.getWidth();
+        double imageHeight = image.getHeight();
+        double viewWidth = imageView.getBoundsInParent().getWidth();
+        double viewHeight = imageView.getBoundsInParent().getHeight();
+
+        double scaleX = imageWidth / viewWidth;
+        double scaleY = imageHeight / viewHeight;
+
+        pickColor(image, 0, 0, imageWidth, imageHeight);
+
+        panePicker.setOnMouseClicked(event -> {
+            double x = event.getX();
+            double y = event.getY();
+
+            int imgX = (int)(x * scaleX);
+            int imgY = (int)(y * scaleY);
+
+            pickColor(image, imgX, imgY, imageWidth, imageHeight);
+        });
+    }
+
+    /**
+     * Pick a color from the color map image
+     * @param image color map image
+     * @param imgX x position in the image
+     * @param imgY y position in the image
+     * @param imageWidth the width of the image
+     * @param imageHeight the height of the image
+     */
+    void pickColor(Image image, int imgX, int imgY, double imageWidth, double imageHeight) {
+        if (imgX >= 0 && imgX < imageWidth && imgY >= 0 && imgY < imageHeight) {
+            PixelReader reader = image.getPixelReader();
+
+            selectedColorARGB = reader.getArgb(imgX, imgY);
+
+            Color color = reader.getColor(imgX, imgY);
+            paneColor.setStyle("-fx-background-color:#" + color.toString().substring(2));
+        }
+    }
+
+    /**
+     * Invoked when the Pen mode is used. Update sketch data array along the line from the last sample
+     * and store updated pixels in filledPixels, sending them in parts while the stroke goes on
+     * @param mx mouse down/drag position x
+     * @param my mouse down/drag position y
+     */
+    void penToData(double mx, double my) {
+        int row = (int) Math.floor((my - startY) / pixelSize);
+        int col = (int) Math.floor((mx - startX) / pixelSize);
+
+        if (lastCol == NO_CELL) {
+            penCell(col, row);
+        } else if (row != lastRow || col != lastCol) {
+            penLine(lastCol, lastRow, col, row); // fill the gap a fast drag leaves between samples
+        }
+        lastRow = row;
+        lastCol = col;
+
+        if (filledPixels.count() >= STROKE_FLUSH_CELLS) {
+            flushStroke();
+        }
+    }
+
+    /**
+     * Paint the cells on the line from (x0, y0) to (x1, y1) with Bresenham's
+     * algorithm, leaving out (x0, y0), which the previous sample painted
+     */
+    void penLine(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1, stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (x0 != x1 || y0 != y1) {
+            int error2 = 2 * error;
+            if (error2 >= dy) {
+                error += dy;
+                x0 += stepX;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                y0 += stepY;
+            }
+            penCell(x0, y0);
+        }
+    }
+
+    void penCell(int col, int row) {
+        if (col >= 0 && col < numPixels && row >= 0 && row < numPixels) {
+            data.set(col, row, selectedColorARGB);
+            dirty.markCell(col, row);
+            filledPixels.add(col, row);
+        }
+    }
+
+    /**
+     * Invoked when the Bucket mode is used. It calls paintArea() to update sketch data array and store updated pixels in filledPixels
+     * @param mx mouse down/drag position x
+     * @param my mouse down/drag position y
+     */
+    void bucketToData(double mx, double my) {
+        int row = (int) Math.floor((my - startY) / pixelSize);
+        int col = (int) Math.floor((mx - startX) / pixelSize);
+        if (col >= 0 && col < numPixels && row >= 0 && row < numPixels) {
+            paintArea(col, row);
+        }
+    }
+
+    /**
+     * Update the color of specific area
+     * @param col position of the sketch data array
+     * @param row position of the sketch data array
+     */
+    public void paintArea(int col, int row) {
+        // Version 3: only the held tiles, the others are blank on our canvas, not on the server's
+        fillAndMark(bucket, data, col, row, selectedColorARGB, protocolVersion >= 3 ? heldTiles : null,
+                dirty, filledPixels);
+    }
+
+    /**
+     * The body of paintArea(), also run by FloodFillBenchmark: fill, then mark
+     * the filled runs in dirty and add them to filledPixels
+     * @param heldTiles null for all tiles
+     */
+    static void fillAndMark(FloodFill bucket, TiledCanvas data, int col, int row, int color, BitSet heldTiles,
+                            DirtyRegion dirty, CellBuffer filledPixels) {
+        bucket.fill(data, col, row, color, heldTiles);
+        for (int run = 0; run < bucket.runCount(); run++) {
+            int x = bucket.runX(run), y = bucket.runY(run);
+            dirty.markRect(x, y, x + bucket.runLength(run) - 1, y);
+            filledPixels.addRun(x, y, bucket.runLength(run));
+        }
+    }
+
+    /**
+     * @param name one of RENDERERS
+     */
+    void setRenderer(String name) {
+        if (!Arrays.asList(RENDERERS).contains(name)) {
+            System.out.println("Unknown renderer " + name + ", keeping " + renderer);
+            return;
+        }
+        renderer = name;
+        renderNanos = 0;
+        renderedFrames = 0;
+        dirty.markAll();
+        System.out.println("Renderer: " + name);
+    }
+
+    /**
+     * Render the sketch data to the canvas: nothing if nothing changed,
+     * only the changed blocks after small edits, everything after a resize, zoom or pan
+     */
+    void render() {
+        DirtyRegion region = dirty;
+        if (region.isClean()) return;
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        TiledCanvas cells = data;
+        // Only the cells on screen, so the cost depends on the window, not the canvas
+        int firstCol = firstVisibleCol(), endCol = Math.min(lastVisibleCol(), cells.size - 1);
+        int firstRow = firstVisibleRow(), endRow = Math.min(lastVisibleRow(), cells.size - 1);
+
+        long start = System.nanoTime();
+        drawCells(gc, cells, region, dirtyBlocks, renderer, ovalRenderer, pixelRenderer,
+                firstCol, firstRow, endCol, endRow, startX, startY, pixelSize);
+
+        renderNanos += System.nanoTime() - start;
+        if (++renderedFrames == FRAME_STATS_INTERVAL) {
+            if (debug) {
+                System.out.printf("Renderer %s: %.3f ms per drawn frame%n",
+                        renderer, renderNanos / 1e6 / renderedFrames);
+            }
+            renderNanos = 0;
+            renderedFrames = 0;
+        }
+    }
+
+    /**
+     * The drawing part of render(), also run by RenderBenchmark: draw the dirty
+     * blocks of cells (firstCol, firstRow) .. (endCol, endRow) with renderer
+     * @param dirtyBlocks reused every frame, so a steady frame allocates nothing
+     */
+    static void drawCells(GraphicsContext gc, TiledCanvas cells, DirtyRegion region, BitSet dirtyBlocks,
+                          String renderer, OvalRenderer ovalRenderer, PixelBufferRenderer pixelRenderer,
+                          int firstCol, int firstRow, int endCol, int endRow,
+                          double startX, double startY, double pixelSize) {
+        BitSet blocks = region.takeInto(dirtyBlocks) ? null : dirtyBlocks;
+        if (renderer.equals("ovals")) {
+            ovalRenderer.render(gc, cells, blocks, region.blocksAcross, firstCol, firstRow, endCol, endRow,
+                    startX, startY, pixelSize);
+        } else {
+            pixelRenderer.render(gc, cells, blocks, region.blocksAcross, firstCol, firstRow, endCol, endRow,
+                    startX, startY, pixelSize, renderer.equals("beads"));
+        }
+    }
+
+    void receiveFullSketch() throws IOException {
+        int size = in.readInt(); // Read dimension (should be 100)
+
+        // Read the color data for every pixel into a new canvas, then hand it over
+        TiledCanvas sketch = new TiledCanvas(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                sketch.set(col, row, in.readInt());
+            }
+        }
+        updates.add(() -> replaceCanvas(sketch));
+        System.out.println("Full sketch received.");
+    }
+
+    void receivePackedSketch() throws IOException {
+        int[] cells = receiveSketchCodec.readSnapshot(in, 0);
+        TiledCanvas sketch = new TiledCanvas(receiveSketchCodec.lastSize());
+        sketch.setAll(cells);
+        updates.add(() -> replaceCanvas(sketch));
+        System.out.println("Packed sketch received.");
+    }
+}
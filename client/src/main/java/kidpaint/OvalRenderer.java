@@ -0,0 +1,76 @@
+package kidpaint;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.BitSet;
+
+/**
+ * The original look: every cell is a filled oval with a gray outline.
+ * Colors come from a ColorCache, so a steady frame creates no objects.
+ *
+ * Used on the FX thread only.
+ */
+public class OvalRenderer {
+    private ColorCache colors = new ColorCache(512);
+
+    /**
+     * Draw the cells (firstCol, firstRow) .. (endCol, endRow)
+     * @param blocks the dirty DirtyRegion blocks, or null to redraw everything
+     * @param startX screen position of cell (0, 0)
+     */
+    void render(GraphicsContext gc, TiledCanvas cells, BitSet blocks, int blocksAcross,
+                int firstCol, int firstRow, int endCol, int endRow,
+                double startX, double startY, double pixelSize) {
+        if (blocks == null) {
+            gc.clearRect(0, 0, gc.getCanvas().getWidth(), gc.getCanvas().getHeight());
+            drawCells(gc, cells, firstCol, firstRow, endCol, endRow, startX, startY, pixelSize);
+            return;
+        }
+
+        // Redraw only the dirty blocks that are on screen
+        int size = DirtyRegion.BLOCK_SIZE;
+        for (int i = blocks.nextSetBit(0); i >= 0; i = blocks.nextSetBit(i + 1)) {
+            int col0 = (i % blocksAcross) * size, row0 = (i / blocksAcross) * size;
+            int col1 = col0 + size - 1, row1 = row0 + size - 1;
+            if (col1 < firstCol || col0 > endCol || row1 < firstRow || row0 > endRow) continue; // off screen
+
+            // Clear the block and redraw it with its neighbours' outlines, which reach into it
+            double x = startX + col0 * pixelSize, y = startY + row0 * pixelSize;
+            gc.save();
+            gc.beginPath();
+            gc.rect(x, y, size * pixelSize, size * pixelSize);
+            gc.clip();
+            gc.clearRect(x, y, size * pixelSize, size * pixelSize);
+            drawCells(gc, cells, Math.max(firstCol, col0 - 1), Math.max(firstRow, row0 - 1),
+                    Math.min(endCol, col1 + 1), Math.min(endRow, row1 + 1), startX, startY, pixelSize);
+            gc.restore();
+        }
+    }
+
+    /**
+     * Draw the cells (firstCol, firstRow) .. (endCol, endRow), inclusive
+     */
+    void drawCells(GraphicsContext gc, TiledCanvas cells, int firstCol, int firstRow, int endCol, int endRow,
+                   double startX, double startY, double pixelSize) {
+        double x = startX + firstCol * pixelSize;
+        double y = startY + firstRow * pixelSize;
+
+        gc.setStroke(Color.GRAY);
+
+        // Corrected loop: iterate row by row (y-axis), then col by col (x-axis)
+        for (int row = firstRow; row <= endRow; row++) {
+            for (int col = firstCol; col <= endCol; col++) {
+
+                gc.setFill(colors.get(cells.get(col, row)));
+
+                gc.fillOval(x, y, pixelSize, pixelSize);
+                gc.strokeOval(x, y, pixelSize, pixelSize);
+
+                x += pixelSize; // Move right
+            }
+            x = startX + firstCol * pixelSize; // Reset to left edge
+            y += pixelSize; // Move down to next row
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package kidpaint;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.ImagePattern;
+import javafx.util.Callback;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+/**
+ * Draws the visible cells as one image with one pixel per cell, scaled up
+ * by a single drawImage() call, instead of two vector ovals per cell.
+ * The pixels live in an IntBuffer shared with the image (PixelBuffer), so
+ * only changed cells are copied from the canvas each frame.
+ *
+ * With beads on, a pre-rendered cell sprite is laid over the image as a
+ * repeating pattern in one fillRect(), which keeps the round look of the
+ * oval renderer.
+ *
+ * Used on the FX thread only.
+ */
+public class PixelBufferRenderer {
+    // Must match the background of the canvas container in mainWindownUI.fxml
+    final static Color BACKGROUND = Color.web("#222");
+
+    private IntBuffer pixels;
+    private PixelBuffer<IntBuffer> pixelBuffer;
+    private WritableImage image;
+    private int firstCol, firstRow, width, height; // cells the image covers
+    private int[] row = new int[0];
+
+    private WritableImage sprite;
+    private int spriteSize;
+    private ImagePattern beads;
+    private double beadsX, beadsY, beadsSize;
+
+    // What the next updateBuffer() call copies; kept in fields so the callback is created only once
+    private TiledCanvas source;
+    private BitSet dirty;
+    private int blocksAcross, endCol, endRow;
+    private final Callback<PixelBuffer<IntBuffer>, Rectangle2D> update = buffer -> {
+        copyDirtyCells();
+        return null; // the image redraws all of it anyway
+    };
+
+    /**
+     * Draw the cells (firstCol, firstRow) .. (endCol, endRow)
+     * @param blocks the dirty DirtyRegion blocks, or null if every cell has to be copied
+     * @param startX screen position of cell (0, 0)
+     */
+    void render(GraphicsContext gc, TiledCanvas cells, BitSet blocks, int blocksAcross,
+                int firstCol, int firstRow, int endCol, int endRow,
+                double startX, double startY, double pixelSize, boolean beads) {
+        int width = endCol - firstCol + 1;
+        int height = endRow - firstRow + 1;
+        double canvasWidth = gc.getCanvas().getWidth(), canvasHeight = gc.getCanvas().getHeight();
+        gc.clearRect(0, 0, canvasWidth, canvasHeight);
+        if (width <= 0 || height <= 0) return;
+
+        if (image == null || width != this.width || height != this.height
+                || firstCol != this.firstCol || firstRow != this.firstRow) {
+            allocate(firstCol, firstRow, width, height);
+            blocks = null;
+        }
+
+        this.source = cells;
+        this.dirty = blocks;
+        this.blocksAcross = blocksAcross;
+        this.endCol = endCol;
+        this.endRow = endRow;
+        pixelBuffer.updateBuffer(update);
+        this.source = null;
+
+        double x = startX + firstCol * pixelSize;
+        double y = startY + firstRow * pixelSize;
+        gc.setImageSmoothing(false);
+        gc.drawImage(image, x, y, width * pixelSize, height * pixelSize);
+
+        if (beads) {
+            gc.setFill(beadPattern(startX, startY, pixelSize));
+            gc.fillRect(x, y, width * pixelSize, height * pixelSize);
+        }
+    }
+
+    /**
+     * Copy the dirty blocks (or everything) from source into the pixel buffer
+     */
+    private void copyDirtyCells() {
+        if (dirty == null) {
+            copyCells(source, firstCol, firstRow, endCol, endRow);
+            return;
+        }
+        int size = DirtyRegion.BLOCK_SIZE;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            int col0 = (i % blocksAcross) * size, row0 = (i / blocksAcross) * size;
+            int col1 = Math.min(endCol, col0 + size - 1), row1 = Math.min(endRow, row0 + size - 1);
+            col0 = Math.max(firstCol, col0);
+            row0 = Math.max(firstRow, row0);
+            if (col0 <= col1 && row0 <= row1) {
+                copyCells(source, col0, row0, col1, row1);
+            }
+        }
+    }
+
+    /**
+     * The bead sprite repeated once per cell, anchored at cell (0, 0); rebuilt only when the view moves
+     */
+    private ImagePattern beadPattern(double startX, double startY, double pixelSize) {
+        if (beads == null || startX != beadsX || startY != beadsY || pixelSize != beadsSize) {
+            beads = new ImagePattern(sprite(pixelSize), startX, startY, pixelSize, pixelSize, false);
+            beadsX = startX;
+            beadsY = startY;
+            beadsSize = pixelSize;
+        }
+        return beads;
+    }
+
+    private void allocate(int firstCol, int firstRow, int width, int height) {
+        this.firstCol = firstCol;
+        this.firstRow = firstRow;
+        this.width = width;
+        this.height = height;
+        pixels = IntBuffer.allocate(width * height);
+        pixelBuffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getIntArgbPreInstance());
+        image = new WritableImage(pixelBuffer);
+    }
+
+    /**
+     * Copy the cells (col0, row0) .. (col1, row1) into the pixel buffer, premultiplied
+     */
+    private void copyCells(TiledCanvas cells, int col0, int row0, int col1, int row1) {
+        int length = col1 - col0 + 1;
+        if (row.length < length) {
+            row = new int[length];
+        }
+        for (int r = row0; r <= row1; r++) {
+            for (int c = 0; c < length; c++) {
+                row[c] = premultiply(cells.get(col0 + c, r));
+            }
+            pixels.put((r - firstRow) * width + (col0 - firstCol), row, 0, length);
+        }
+    }
+
+    static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xFF) return argb;
+        if (a == 0) return 0;
+        int r = ((argb >> 16) & 0xFF) * a / 255;
+        int g = ((argb >> 8) & 0xFF) * a / 255;
+        int b = (argb & 0xFF) * a / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * One cell of the bead overlay: background in the corners, a gray ring,
+     * and a clear middle where the cell color shows through.
+     */
+    private WritableImage sprite(double pixelSize) {
+        int size = Math.max(1, (int) Math.round(pixelSize));
+        if (sprite != null && size == spriteSize) return sprite;
+
+        sprite = new WritableImage(size, size);
+        spriteSize = size;
+        double radius = size / 2.0;
+        for (int py = 0; py < size; py++) {
+            for (int px = 0; px < size; px++) {
+                double dx = px + 0.5 - radius, dy = py + 0.5 - radius;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                Color color;
+                if (distance > radius) {
+                    color = BACKGROUND;
+                } else if (distance > radius - 1) {
+                    color = Color.GRAY;
+                } else {
+                    color = Color.TRANSPARENT;
+                }
+                sprite.getPixelWriter().setColor(px, py, color);
+            }
+        }
+        return sprite;
+    }
+}
@@ -1,3 +1,5 @@
+package kidpaint;
+
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -1,3 +1,5 @@
+package kidpaint;
+
 // This is a simple data class to hold server info
 public class StudioInfo {
     private String studioName;
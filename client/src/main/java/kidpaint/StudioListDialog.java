@@ -1,3 +1,5 @@
+package kidpaint;
+
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -108,7 +110,9 @@ public class StudioListDialog {
 
                     // Update UI on the JavaFX Application Thread
                     Platform.runLater(() -> {
-                        if (!studioList.stream().anyMatch(s -> s.getIpAddress().equals(ip))) {
+                        // A dedicated server answers once for each of its studios
+                        if (!studioList.stream().anyMatch(s -> s.getIpAddress().equals(ip) && s.getPort() == port
+                                && s.getStudioName().equals(studioName))) {
                             studioList.add(info);
                             lblStatus.setText("Found " + studioList.size() + " studio(s)");
                         }
@@ -0,0 +1,72 @@
+package kidpaint;
+
+import java.util.Arrays;
+
+/**
+ * A batch of cells of a size x size canvas, packed as one int each
+ * (y * size + x) in a growable array, instead of a list of Point objects.
+ * Meant to be kept and reused: clear() keeps the array, so once it has
+ * grown to the biggest batch, filling it allocates nothing.
+ *
+ * Not thread safe.
+ */
+public class CellBuffer {
+    final int size; // canvas size the cells belong to
+
+    private int[] cells = new int[256];
+    private int count = 0;
+
+    public CellBuffer(int size) {
+        this.size = size;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * Add one cell; the caller checks that it is on the canvas
+     */
+    void add(int x, int y) {
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[count++] = y * size + x;
+    }
+
+    /**
+     * Add a horizontal line of cells
+     */
+    void addRun(int x, int y, int length) {
+        if (count + length > cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, count + length));
+        }
+        int index = y * size + x;
+        for (int i = 0; i < length; i++) {
+            cells[count++] = index + i;
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * The packed cell, y * size + x
+     */
+    int index(int i) {
+        return cells[i];
+    }
+
+    int x(int i) {
+        return cells[i] % size;
+    }
+
+    int y(int i) {
+        return cells[i] / size;
+    }
+}
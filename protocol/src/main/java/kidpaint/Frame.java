@@ -0,0 +1,30 @@
+package kidpaint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One encoded protocol message, ready to be written to a socket.
+ * A broadcast encodes its message once and hands the same Frame to every
+ * client, so the bytes live in a read-only (usually off-heap) buffer that
+ * each writer reads through its own duplicate.
+ */
+public class Frame {
+    final int type;
+    private final ByteBuffer bytes;
+
+    public Frame(int type, ByteBuffer bytes) {
+        this.type = type;
+        this.bytes = bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a view of the bytes with its own position, for one writer
+     */
+    ByteBuffer data() {
+        return bytes.duplicate();
+    }
+
+    int size() {
+        return bytes.remaining();
+    }
+}
@@ -0,0 +1,115 @@
+package kidpaint;
+
+import java.util.Arrays;
+
+/**
+ * Numbers distinct int keys 0, 1, 2, ... in the order they are first put,
+ * e.g. colors to palette indexes or cells to their pending change.
+ * Open addressing with linear probing over primitive ints, so lookups and
+ * puts create no objects once the arrays have grown, and clear() only
+ * touches the slots in use.
+ *
+ * Not thread safe.
+ */
+public class IntIndexMap {
+    private int[] keys;           // per slot
+    private int[] indexes;        // per slot, index + 1, 0 = empty
+    private int[] slots;          // slot of each index
+    private int[] keysByIndex;
+    private int size = 0;
+
+    /**
+     * @param expected keys it should hold before growing
+     */
+    public IntIndexMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, expected - 1)) << 2;
+        keys = new int[capacity];
+        indexes = new int[capacity];
+        slots = new int[capacity / 2];
+        keysByIndex = new int[capacity / 2];
+    }
+
+    /**
+     * @return the key's index, or -1 if it was never put
+     */
+    int indexOf(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (indexes[slot] != 0) {
+            if (keys[slot] == key) {
+                return indexes[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the key's index, the next one (size() before the call) if it is new
+     */
+    int put(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (indexes[slot] != 0) {
+            if (keys[slot] == key) {
+                return indexes[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keysByIndex.length) {
+            keysByIndex = Arrays.copyOf(keysByIndex, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        keys[slot] = key;
+        indexes[slot] = size + 1;
+        slots[size] = slot;
+        keysByIndex[size] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * The key put as the index-th one
+     */
+    int key(int index) {
+        return keysByIndex[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Forget every key; only touches the slots in use
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            indexes[slots[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        indexes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(keysByIndex[i]) & mask;
+            while (indexes[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = keysByIndex[i];
+            indexes[slot] = i + 1;
+            slots[i] = slot;
+        }
+    }
+
+    // Spread the bits so similar keys (neighbouring cells, colors one channel apart) land apart
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,149 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds one protocol message (type byte, header ints, payload) in a
+ * reusable byte array, so the whole message goes out with a single write
+ * instead of one small socket write per int.
+ * Not thread safe: a builder is used by one thread at a time.
+ */
+public class MessageBuilder {
+    // Frames are cut out of direct chunks. A builder's first chunk is small and each
+    // next one twice as big, up to MAX_CHUNK_SIZE, so one that sends little holds little
+    final static int MIN_CHUNK_SIZE = 8 * 1024;
+    final static int MAX_CHUNK_SIZE = 256 * 1024;
+
+    private byte[] buffer;
+    private int size = 0;
+    private ByteBuffer chunk;
+    private int chunkSize = MIN_CHUNK_SIZE / 2;
+
+    public MessageBuilder(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Start a new message, dropping whatever was built before
+     */
+    MessageBuilder begin(int type) {
+        size = 0;
+        return writeByte(type);
+    }
+
+    MessageBuilder writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Big-endian, same as DataOutputStream.writeInt()
+     */
+    MessageBuilder writeInt(int value) {
+        ensureCapacity(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Big-endian, same as DataOutputStream.writeLong()
+     */
+    MessageBuilder writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        return writeInt((int) value);
+    }
+
+    /**
+     * Unsigned LEB128 varint: 7 bits per byte, high bit set on all but the last byte
+     */
+    MessageBuilder writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Overwrite an int written earlier, e.g. a length that was not known yet
+     */
+    void setInt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    MessageBuilder writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Empty the builder without starting a message (for building payloads)
+     */
+    void reset() {
+        size = 0;
+    }
+
+    /**
+     * The internal array; only the first size() bytes are valid
+     */
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Send the message with one write call
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+        out.flush();
+    }
+
+    /**
+     * Copy the message into an immutable off-heap Frame for an OutboundQueue.
+     * Socket channels write direct buffers without another copy,
+     * which matters when the same frame goes to hundreds of clients.
+     * Frames bigger than a quarter of the biggest chunk get their own buffer.
+     */
+    Frame toFrame() {
+        ByteBuffer target;
+        if (size > MAX_CHUNK_SIZE / 4) {
+            target = ByteBuffer.allocateDirect(size);
+        } else {
+            if (chunk == null || chunk.remaining() < size) {
+                chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+                while (chunkSize < size * 4) {
+                    chunkSize *= 2;
+                }
+                chunk = ByteBuffer.allocateDirect(chunkSize);
+            }
+            target = chunk.slice(chunk.position(), size);
+            chunk.position(chunk.position() + size);
+        }
+        target.put(0, buffer, 0, size);
+        return new Frame(buffer[0] & 0xFF, target);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
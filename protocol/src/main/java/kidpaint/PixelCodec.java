@@ -0,0 +1,204 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a batch of cells for the PIXELS_RUNS message (protocol version 2).
+ *
+ * Message layout: type byte, int color, int byteLength, then byteLength bytes of runs.
+ * Each run is a horizontal line of cells (y, x .. x+length-1) written as three varints:
+ *   zigzag(y - previous y), zigzag(x - previous x), length - 1
+ * where "previous" is the start of the run before (0, 0 for the first run).
+ * A pen stroke costs about 3 bytes per cell instead of 8, and a bucket fill
+ * about 3-5 bytes per row it touches.
+ * Cells are sorted before encoding, so the receiver may get them in a different
+ * order than they were added; that is fine since every cell gets the same color.
+ *
+ * Not thread safe: keep one codec per sending thread.
+ */
+public class PixelCodec {
+
+    interface CellConsumer {
+        void cell(int x, int y) throws IOException;
+    }
+
+    private int[] cells = new int[256]; // (y << 16) | x of every cell added
+    private int count = 0;
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+    private int prevX, prevY;
+    private final int[] value = new int[1]; // varint scratch for decode(..., CellBuffer)
+
+    /**
+     * Start a new batch
+     */
+    void reset() {
+        count = 0;
+    }
+
+    /**
+     * Add one cell (coordinates up to 65535)
+     */
+    void add(int x, int y) {
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[count++] = (y << 16) | x;
+    }
+
+    /**
+     * Add a horizontal line of cells (used by bucket fills)
+     */
+    void addRun(int x, int y, int length) {
+        for (int i = 0; i < length; i++) {
+            add(x + i, y);
+        }
+    }
+
+    /**
+     * Add every cell of a buffer
+     */
+    void addAll(CellBuffer buffer) {
+        int total = count + buffer.count();
+        if (total > cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, total));
+        }
+        for (int i = 0; i < buffer.count(); i++) {
+            cells[count++] = (buffer.y(i) << 16) | buffer.x(i);
+        }
+    }
+
+    /**
+     * Finish the batch and write "int byteLength, bytes" to the message.
+     * All cells share one color, so their order does not matter: they are
+     * sorted by row first, which turns strokes and fills into long runs
+     * and keeps the deltas small.
+     */
+    void writeTo(MessageBuilder message) {
+        Arrays.sort(cells, 0, count);
+        size = 0;
+        prevX = 0;
+        prevY = 0;
+
+        int i = 0;
+        while (i < count) {
+            int start = cells[i];
+            int end = i + 1;
+            // extend the run while the next cell is the right neighbour (skip duplicates)
+            int last = start;
+            while (end < count && (cells[end] == last || cells[end] == last + 1)) {
+                last = cells[end];
+                end++;
+            }
+            writeRun(start & 0xFFFF, start >>> 16, last - start + 1);
+            i = end;
+        }
+
+        message.writeInt(size);
+        message.writeBytes(bytes, 0, size);
+    }
+
+    private void writeRun(int x, int y, int length) {
+        writeVarint(zigzag(y - prevY));
+        writeVarint(zigzag(x - prevX));
+        writeVarint(length - 1);
+        prevX = x;
+        prevY = y;
+    }
+
+    private void writeVarint(int value) {
+        if (size + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Decode the runs of a PIXELS_RUNS payload, calling the consumer once per cell
+     * @param bytes the payload after the byteLength int
+     * @param length number of payload bytes
+     * @throws IOException if the payload is cut off in the middle of a run
+     */
+    static void decode(byte[] bytes, int length, CellConsumer consumer) throws IOException {
+        decode(bytes, 0, length, consumer);
+    }
+
+    /**
+     * Decode runs stored in bytes[offset .. offset+length)
+     */
+    static void decode(byte[] bytes, int offset, int length, CellConsumer consumer) throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        int x = 0, y = 0;
+        int[] value = new int[1];
+        while (pos < end) {
+            pos = readVarint(bytes, pos, end, value);
+            y += unzigzag(value[0]);
+            pos = readVarint(bytes, pos, end, value);
+            x += unzigzag(value[0]);
+            pos = readVarint(bytes, pos, end, value);
+            int runLength = value[0] + 1;
+
+            for (int i = 0; i < runLength; i++) {
+                consumer.cell(x + i, y);
+            }
+        }
+    }
+
+    /**
+     * Decode the runs of a PIXELS_RUNS payload into a buffer. Uses this codec's
+     * scratch space instead of a callback, so it allocates nothing once the
+     * buffer has grown.
+     * @throws IOException if the payload is cut off or a run leaves the buffer's canvas
+     */
+    void decode(byte[] bytes, int length, CellBuffer into) throws IOException {
+        int pos = 0;
+        int x = 0, y = 0;
+        while (pos < length) {
+            pos = readVarint(bytes, pos, length, value);
+            y += unzigzag(value[0]);
+            pos = readVarint(bytes, pos, length, value);
+            x += unzigzag(value[0]);
+            pos = readVarint(bytes, pos, length, value);
+            int runLength = value[0] + 1;
+
+            if (x < 0 || y < 0 || y >= into.size || runLength < 1 || runLength > into.size - x) {
+                throw new IOException("Run (" + x + ", " + y + ") x " + runLength + " is outside the canvas");
+            }
+            into.addRun(x, y, runLength);
+        }
+    }
+
+    /**
+     * Read one varint from bytes[pos .. end) into value[0]
+     * @return the position after the varint
+     */
+    static int readVarint(byte[] bytes, int pos, int end, int[] value) throws IOException {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            if (pos >= end || shift > 28) {
+                throw new IOException("Broken varint payload");
+            }
+            byte b = bytes[pos++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        }
+        value[0] = result;
+        return pos;
+    }
+}
@@ -0,0 +1,291 @@
+package kidpaint;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact whole-canvas messages for protocol version 2.
+ *
+ * SKETCH_PACKED: type byte, int size, int byteLength, then the payload:
+ *   byte flags, [int bodyLength if flags has DEFLATED], body (deflated if flagged)
+ *   body = varint paletteSize, paletteSize ARGB ints, then pairs of
+ *          varint paletteIndex, varint runLength - 1 covering the size*size cells row by row
+ * SKETCH_DIFF: type byte, int size, int byteLength, then for every color that changed:
+ *   int color, int runsLength, PixelCodec runs of the cells that now have that color
+ *
+ * A mostly black 100x100 sketch packs into a few dozen bytes instead of 40 KB.
+ * Not thread safe: a codec is used by one thread at a time.
+ */
+public class SketchCodec {
+    final static int DEFLATED = 1;
+    // Bodies smaller than this are not worth deflating
+    final static int DEFLATE_THRESHOLD = 512;
+    // A diff with more colors than this is sent as a packed snapshot instead
+    final static int MAX_DIFF_COLORS = 256;
+    // The biggest canvas (ServerConfig), so size * size cells always fit in an array
+    final static int MAX_SIZE = 4096;
+    // Longest payload or inflated body read, like the NIO server's message cap
+    final static int MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    private MessageBuilder body = new MessageBuilder(4096);
+    private byte[] deflated = new byte[4096];
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private IntIndexMap palette = new IntIndexMap(64); // color -> palette index
+    private PixelCodec[] groups = new PixelCodec[MAX_DIFF_COLORS]; // one per color of a diff, reused
+    private int lastSize;
+
+    interface CellWriter {
+        void set(int x, int y, int color) throws IOException;
+    }
+
+    /**
+     * Write "int size, int byteLength, payload" of a SKETCH_PACKED message
+     * @param cells size*size colors, row by row
+     */
+    void writeSnapshot(MessageBuilder message, int[] cells, int size) {
+        int total = size * size;
+
+        // Palette in order of first appearance; only looked up where a run starts
+        palette.clear();
+        int last = cells[0];
+        palette.put(last);
+        for (int i = 1; i < total; i++) {
+            if (cells[i] != last) {
+                last = cells[i];
+                palette.put(last);
+            }
+        }
+
+        body.reset();
+        body.writeVarint(palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            body.writeInt(palette.key(i));
+        }
+
+        // Runs of equal colors, row by row, continuing across row ends
+        int runColor = cells[0];
+        int runLength = 0;
+        for (int i = 0; i < total; i++) {
+            int color = cells[i];
+            if (color != runColor) {
+                body.writeVarint(palette.indexOf(runColor));
+                body.writeVarint(runLength - 1);
+                runColor = color;
+                runLength = 0;
+            }
+            runLength++;
+        }
+        body.writeVarint(palette.indexOf(runColor));
+        body.writeVarint(runLength - 1);
+
+        message.writeInt(size);
+        int lengthPosition = message.size();
+        message.writeInt(0); // byteLength, filled in below
+        int start = message.size();
+
+        int deflatedLength = body.size() >= DEFLATE_THRESHOLD ? deflate() : -1;
+        if (deflatedLength > 0 && deflatedLength + 4 < body.size()) {
+            message.writeByte(DEFLATED);
+            message.writeInt(body.size());
+            message.writeBytes(deflated, 0, deflatedLength);
+        } else {
+            message.writeByte(0);
+            message.writeBytes(body.array(), 0, body.size());
+        }
+        message.setInt(lengthPosition, message.size() - start);
+    }
+
+    private int deflate() {
+        deflater.reset();
+        deflater.setInput(body.array(), 0, body.size());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                if (length >= body.size()) return -1; // not getting smaller
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return length;
+    }
+
+    /**
+     * Read the rest of a SKETCH_PACKED message (after the type byte)
+     * @param expectedSize the size the sketch must have, or 0 for any
+     * @return a new array of size*size colors, row by row; see lastSize().
+     *         null if the sketch has another size than expected; it is skipped then
+     */
+    int[] readSnapshot(DataInputStream in, int expectedSize) throws IOException {
+        int size = in.readInt();
+        int length = in.readInt();
+        if (size < 1 || size > MAX_SIZE || length < 1) {
+            throw new IOException("Bad packed sketch header");
+        }
+        lastSize = size;
+        if (expectedSize > 0 && size != expectedSize) {
+            in.skipNBytes(length);
+            return null;
+        }
+        long area = (long) size * size;
+        if (length > MAX_PAYLOAD || length > 16 * area + 32) { // more than even one run per cell takes
+            throw new IOException("Bad packed sketch length");
+        }
+        // Grows with the bytes that really arrive, not with what the header claims
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("Packed sketch is cut off");
+        }
+
+        byte[] bytes = payload;
+        int pos = 1;
+        int end = length;
+        if ((payload[0] & DEFLATED) != 0) {
+            int bodyLength = length >= 5 ? readInt(payload, 1) : -1;
+            if (bodyLength < 0 || bodyLength > MAX_PAYLOAD || bodyLength > 16 * area + 16) {
+                throw new IOException("Bad packed sketch length");
+            }
+            bytes = inflate(payload, 5, length - 5, bodyLength);
+            pos = 0;
+            end = bodyLength;
+        }
+
+        int[] value = new int[1];
+        pos = PixelCodec.readVarint(bytes, pos, end, value);
+        int paletteSize = value[0];
+        if (paletteSize < 1 || pos + 4L * paletteSize > end) {
+            throw new IOException("Bad packed sketch palette");
+        }
+        int[] colors = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            colors[i] = readInt(bytes, pos);
+            pos += 4;
+        }
+
+        int[] cells = new int[(int) area];
+        int cell = 0;
+        while (cell < cells.length) {
+            pos = PixelCodec.readVarint(bytes, pos, end, value);
+            int index = value[0];
+            pos = PixelCodec.readVarint(bytes, pos, end, value);
+            int runLength = value[0] + 1;
+            if (index >= paletteSize || runLength < 1 || runLength > cells.length - cell) {
+                throw new IOException("Bad packed sketch run");
+            }
+            Arrays.fill(cells, cell, cell + runLength, colors[index]);
+            cell += runLength;
+        }
+        return cells;
+    }
+
+    /**
+     * @return the size of the sketch read (or skipped) by the last readSnapshot()
+     */
+    int lastSize() {
+        return lastSize;
+    }
+
+    private byte[] inflate(byte[] input, int offset, int length, int outputLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, length);
+            // Grown as it fills, so a short input that claims a big body costs little
+            byte[] output = new byte[Math.min(outputLength, 64 * 1024)];
+            int done = 0;
+            while (done < outputLength && !inflater.finished()) {
+                if (done == output.length) {
+                    output = Arrays.copyOf(output, (int) Math.min(outputLength, 2L * output.length));
+                }
+                int n = inflater.inflate(output, done, output.length - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                done += n;
+            }
+            if (done != outputLength) {
+                throw new IOException("Packed sketch is cut off");
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IOException("Bad deflated sketch: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Write "int size, int byteLength, groups" of a SKETCH_DIFF message
+     * with the cells that differ between before and after.
+     * @return false if too many colors changed; nothing is written then
+     *         and a snapshot should be sent instead
+     */
+    boolean writeDiff(MessageBuilder message, int[] before, int[] after, int size) {
+        palette.clear();
+        for (int i = 0; i < size * size; i++) {
+            int color = after[i];
+            if (before[i] == color) continue;
+
+            int known = palette.size();
+            int index = palette.put(color);
+            if (index == known) { // a new color
+                if (index == MAX_DIFF_COLORS) return false;
+                if (groups[index] == null) groups[index] = new PixelCodec();
+                groups[index].reset();
+            }
+            groups[index].add(i % size, i / size);
+        }
+
+        message.writeInt(size);
+        int lengthPosition = message.size();
+        message.writeInt(0); // byteLength, filled in below
+        int start = message.size();
+        for (int i = 0; i < palette.size(); i++) {
+            message.writeInt(palette.key(i));
+            groups[i].writeTo(message);
+        }
+        message.setInt(lengthPosition, message.size() - start);
+        return true;
+    }
+
+    /**
+     * Apply the groups of a SKETCH_DIFF message
+     * @param size the size from the message header
+     * @param payload the byteLength bytes after the header
+     * @param canvasSize the size of the canvas the diff is applied to
+     * @param writer called for every changed cell
+     */
+    static void applyDiff(int size, byte[] payload, int canvasSize, CellWriter writer) throws IOException {
+        if (size != canvasSize) {
+            throw new IOException("Sketch diff does not match the canvas");
+        }
+        int length = payload.length;
+        int pos = 0;
+        while (pos + 8 <= length) {
+            int color = readInt(payload, pos);
+            int runsLength = readInt(payload, pos + 4);
+            if (runsLength < 0 || pos + 8 + runsLength > length) {
+                throw new IOException("Bad sketch diff group");
+            }
+            PixelCodec.decode(payload, pos + 8, runsLength, (x, y) -> {
+                if (x < 0 || x >= size || y < 0 || y >= size) {
+                    throw new IOException("Sketch diff cell outside the canvas");
+                }
+                writer.set(x, y, color);
+            });
+            pos += 8 + runsLength;
+        }
+        if (pos != length) {
+            throw new IOException("Sketch diff is cut off");
+        }
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,140 @@
+package kidpaint;
+
+import java.util.Arrays;
+
+/**
+ * A square canvas stored as TILE_SIZE x TILE_SIZE tiles.
+ * Tiles are only allocated when a cell in them is set to something other
+ * than black; until then they all share one empty tile, so a 4096x4096
+ * mural that is mostly black costs a few tiles instead of 64 MB.
+ * Tiles at the right and bottom edge may reach past the canvas; those cells stay 0.
+ *
+ * Not thread safe: the server guards it with CanvasModel's locks.
+ */
+public class TiledCanvas {
+    final static int TILE_SIZE = 64;
+    final static int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+    // Shared by every tile that was never painted; never written
+    private final static int[] EMPTY_TILE = new int[TILE_CELLS];
+
+    final int size;
+    final int tilesAcross;
+    private int[][] tiles;
+
+    public TiledCanvas(int size) {
+        this.size = size;
+        this.tilesAcross = (size + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new int[tilesAcross * tilesAcross][];
+        Arrays.fill(tiles, EMPTY_TILE);
+    }
+
+    boolean contains(int x, int y) {
+        return x >= 0 && x < size && y >= 0 && y < size;
+    }
+
+    int get(int x, int y) {
+        return tiles[tileIndex(x / TILE_SIZE, y / TILE_SIZE)][(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+    }
+
+    void set(int x, int y, int color) {
+        int index = tileIndex(x / TILE_SIZE, y / TILE_SIZE);
+        int[] tile = tiles[index];
+        if (tile == EMPTY_TILE) {
+            if (color == 0) return;
+            tile = new int[TILE_CELLS];
+            tiles[index] = tile;
+        }
+        tile[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] = color;
+    }
+
+    int tileIndex(int tileX, int tileY) {
+        return tileY * tilesAcross + tileX;
+    }
+
+    /**
+     * The cells of one tile, row by row. Read only: it may be the shared empty tile.
+     */
+    int[] tile(int tileX, int tileY) {
+        return tiles[tileIndex(tileX, tileY)];
+    }
+
+    boolean isEmpty(int tileX, int tileY) {
+        return tiles[tileIndex(tileX, tileY)] == EMPTY_TILE;
+    }
+
+    /**
+     * Replace one tile with TILE_CELLS colors; the array is kept, not copied
+     */
+    void setTile(int tileX, int tileY, int[] cells) {
+        boolean empty = true;
+        for (int color : cells) {
+            if (color != 0) {
+                empty = false;
+                break;
+            }
+        }
+        tiles[tileIndex(tileX, tileY)] = empty ? EMPTY_TILE : cells;
+    }
+
+    /**
+     * Forget a tile, e.g. when it leaves a client's viewport
+     */
+    void clearTile(int tileX, int tileY) {
+        tiles[tileIndex(tileX, tileY)] = EMPTY_TILE;
+    }
+
+    void clear() {
+        Arrays.fill(tiles, EMPTY_TILE);
+    }
+
+    /**
+     * @return a copy of the whole canvas, size*size colors row by row
+     */
+    int[] toArray() {
+        int[] cells = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            int tileY = y / TILE_SIZE;
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                int[] tile = tiles[tileIndex(tileX, tileY)];
+                if (tile == EMPTY_TILE) continue;
+                int x = tileX * TILE_SIZE;
+                int length = Math.min(TILE_SIZE, size - x);
+                System.arraycopy(tile, (y % TILE_SIZE) * TILE_SIZE, cells, y * size + x, length);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Copy one tile into a size*size array laid out like toArray()
+     */
+    void copyTile(int tileX, int tileY, int[] cells) {
+        int[] tile = tiles[tileIndex(tileX, tileY)];
+        int x = tileX * TILE_SIZE;
+        int length = Math.min(TILE_SIZE, size - x);
+        for (int row = 0; row < TILE_SIZE; row++) {
+            int y = tileY * TILE_SIZE + row;
+            if (y >= size) break;
+            System.arraycopy(tile, row * TILE_SIZE, cells, y * size + x, length);
+        }
+    }
+
+    /**
+     * Replace the whole canvas with size*size colors, row by row
+     */
+    void setAll(int[] cells) {
+        for (int tileY = 0; tileY < tilesAcross; tileY++) {
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                int[] tile = new int[TILE_CELLS];
+                int x0 = tileX * TILE_SIZE;
+                int length = Math.min(TILE_SIZE, size - x0);
+                for (int row = 0; row < TILE_SIZE; row++) {
+                    int y = tileY * TILE_SIZE + row;
+                    if (y >= size) break;
+                    System.arraycopy(cells, y * size + x0, tile, row * TILE_SIZE, length);
+                }
+                setTile(tileX, tileY, tile);
+            }
+        }
+    }
+}
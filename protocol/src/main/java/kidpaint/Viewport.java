@@ -0,0 +1,55 @@
+package kidpaint;
+
+/**
+ * A rectangle of tiles a client is looking at (inclusive tile coordinates).
+ * Protocol version 3 clients send it in a SUBSCRIBE message and then only
+ * get the tiles and pixel changes inside it. Immutable.
+ */
+public class Viewport {
+    final static Viewport NONE = new Viewport(0, 0, -1, -1);
+
+    final int firstTileX, firstTileY, lastTileX, lastTileY;
+
+    public Viewport(int firstTileX, int firstTileY, int lastTileX, int lastTileY) {
+        this.firstTileX = firstTileX;
+        this.firstTileY = firstTileY;
+        this.lastTileX = lastTileX;
+        this.lastTileY = lastTileY;
+    }
+
+    /**
+     * The tiles covering the cells (x0, y0) .. (x1, y1), clipped to a canvas of tilesAcross tiles
+     */
+    static Viewport ofCells(int x0, int y0, int x1, int y1, int tilesAcross) {
+        int last = tilesAcross - 1;
+        return new Viewport(
+                Math.max(0, x0 / TiledCanvas.TILE_SIZE), Math.max(0, y0 / TiledCanvas.TILE_SIZE),
+                Math.min(last, x1 / TiledCanvas.TILE_SIZE), Math.min(last, y1 / TiledCanvas.TILE_SIZE));
+    }
+
+    /**
+     * @return this viewport clipped to a canvas of tilesAcross tiles
+     */
+    Viewport clip(int tilesAcross) {
+        int last = tilesAcross - 1;
+        return new Viewport(Math.max(0, firstTileX), Math.max(0, firstTileY),
+                Math.min(last, lastTileX), Math.min(last, lastTileY));
+    }
+
+    boolean containsTile(int tileX, int tileY) {
+        return tileX >= firstTileX && tileX <= lastTileX && tileY >= firstTileY && tileY <= lastTileY;
+    }
+
+    boolean containsCell(int x, int y) {
+        return x >= 0 && y >= 0 && containsTile(x / TiledCanvas.TILE_SIZE, y / TiledCanvas.TILE_SIZE);
+    }
+
+    boolean isEmpty() {
+        return lastTileX < firstTileX || lastTileY < firstTileY;
+    }
+
+    boolean sameAs(Viewport other) {
+        return firstTileX == other.firstTileX && firstTileY == other.firstTileY
+                && lastTileX == other.lastTileX && lastTileY == other.lastTileY;
+    }
+}
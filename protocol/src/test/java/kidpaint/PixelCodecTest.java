@@ -0,0 +1,137 @@
+package kidpaint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PixelCodecTest {
+    final static int SIZE = 1024;
+
+    PixelCodec codec = new PixelCodec();
+    MessageBuilder message = new MessageBuilder(64);
+
+    @Test
+    void zigzagRoundTrips() {
+        for (int value : new int[] {0, 1, -1, 2, -2, 63, -64, 1000, -1000, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertEquals(value, PixelCodec.unzigzag(PixelCodec.zigzag(value)));
+        }
+        // small values of either sign stay small, so they fit one varint byte
+        assertEquals(0, PixelCodec.zigzag(0));
+        assertEquals(1, PixelCodec.zigzag(-1));
+        assertEquals(2, PixelCodec.zigzag(1));
+        assertEquals(127, PixelCodec.zigzag(-64));
+    }
+
+    @Test
+    void strokeRoundTrips() throws IOException {
+        // goes left and up as well, so the deltas are negative
+        int[][] stroke = {{500, 500}, {499, 501}, {498, 501}, {498, 500}, {10, 3}, {11, 3}, {1023, 1023}, {0, 0}};
+        for (int[] cell : stroke) {
+            codec.add(cell[0], cell[1]);
+        }
+        assertArrayEquals(sorted(stroke), decode(encode()));
+    }
+
+    @Test
+    void fillRoundTripsAsOneRunPerRow() throws IOException {
+        for (int y = 10; y < 20; y++) {
+            codec.addRun(0, y, SIZE); // a length of 1023 takes a two byte varint
+        }
+        byte[] payload = encode();
+        assertEquals(10 * 4, payload.length); // 1 byte for y, 1 for x, 2 for the length
+        assertEquals(10 * SIZE, decode(payload).length);
+    }
+
+    @Test
+    void duplicatesAreSentOnce() throws IOException {
+        codec.add(5, 5);
+        codec.add(6, 5);
+        codec.add(5, 5);
+        codec.addRun(5, 5, 3);
+        assertArrayEquals(new int[] {5 * SIZE + 5, 5 * SIZE + 6, 5 * SIZE + 7}, decode(encode()));
+    }
+
+    @Test
+    void decodesIntoACellBuffer() throws IOException {
+        CellBuffer cells = new CellBuffer(SIZE);
+        cells.add(7, 9);
+        cells.addRun(1, 2, 4);
+        codec.addAll(cells);
+        byte[] payload = encode();
+
+        CellBuffer into = new CellBuffer(SIZE);
+        codec.decode(payload, payload.length, into);
+        assertArrayEquals(new int[] {2 * SIZE + 1, 2 * SIZE + 2, 2 * SIZE + 3, 2 * SIZE + 4, 9 * SIZE + 7},
+                indexes(into));
+    }
+
+    @Test
+    void emptyBatchHasNoRuns() throws IOException {
+        assertEquals(0, encode().length);
+    }
+
+    @Test
+    void rejectsCutOffPayload() throws IOException {
+        codec.addRun(3, 700, 300);
+        byte[] payload = encode();
+        for (int length = 1; length < payload.length; length++) {
+            int cutAt = length;
+            assertThrows(IOException.class, () -> PixelCodec.decode(payload, cutAt, (x, y) -> { }));
+            assertThrows(IOException.class, () -> codec.decode(payload, cutAt, new CellBuffer(SIZE)));
+        }
+    }
+
+    @Test
+    void rejectsRunsOffTheCanvas() throws IOException {
+        codec.addRun(SIZE - 2, 5, 2);
+        byte[] payload = encode();
+        assertThrows(IOException.class, () -> codec.decode(payload, payload.length, new CellBuffer(SIZE - 1)));
+    }
+
+    /**
+     * Finish the batch and return the runs, without the length int
+     */
+    private byte[] encode() {
+        message.reset();
+        codec.writeTo(message);
+        int length = message.size() - 4;
+        byte[] bytes = message.array();
+        assertEquals(length, ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16)
+                | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+        codec.reset();
+        return Arrays.copyOfRange(bytes, 4, message.size());
+    }
+
+    /**
+     * Every decoded cell as y * SIZE + x, in the order decode() gives them
+     */
+    private static int[] decode(byte[] payload) throws IOException {
+        CellBuffer cells = new CellBuffer(SIZE);
+        BitSet seen = new BitSet();
+        PixelCodec.decode(payload, payload.length, (x, y) -> {
+            assertFalse(seen.get(y * SIZE + x), "cell decoded twice");
+            seen.set(y * SIZE + x);
+            cells.add(x, y);
+        });
+        return indexes(cells);
+    }
+
+    private static int[] indexes(CellBuffer cells) {
+        int[] indexes = new int[cells.count()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = cells.index(i);
+        }
+        return indexes;
+    }
+
+    private static int[] sorted(int[][] cells) {
+        return Arrays.stream(cells).mapToInt(cell -> cell[1] * SIZE + cell[0]).sorted().toArray();
+    }
+}
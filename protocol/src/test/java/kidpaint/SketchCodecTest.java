@@ -0,0 +1,202 @@
+package kidpaint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SketchCodecTest {
+    final static int BLACK = 0xFF000000;
+
+    SketchCodec codec = new SketchCodec();
+    MessageBuilder message = new MessageBuilder(1024);
+    Random random = new Random(1);
+
+    @Test
+    void blankSketchRoundTrips() throws IOException {
+        int[] cells = new int[100 * 100];
+        Arrays.fill(cells, BLACK);
+        byte[] bytes = snapshot(cells, 100);
+        assertTrue(bytes.length < 32, bytes.length + " bytes");
+        assertArrayEquals(cells, codec.readSnapshot(input(bytes), 100));
+        assertEquals(100, codec.lastSize());
+    }
+
+    @Test
+    void deflatedSketchRoundTrips() throws IOException {
+        int size = 512;
+        int[] cells = stripes(size);
+        byte[] bytes = snapshot(cells, size);
+        assertEquals(SketchCodec.DEFLATED, bytes[8] & SketchCodec.DEFLATED);
+        assertArrayEquals(cells, codec.readSnapshot(input(bytes), 0));
+    }
+
+    @Test
+    void noisySketchRoundTrips() throws IOException {
+        for (int size : new int[] {1, 7, 100}) {
+            int[] cells = new int[size * size];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = random.nextInt();
+            }
+            assertArrayEquals(cells, codec.readSnapshot(input(snapshot(cells, size)), size));
+        }
+    }
+
+    @Test
+    void sketchOfAnotherSizeIsSkipped() throws IOException {
+        byte[] bytes = snapshot(stripes(64), 64);
+        DataInputStream in = input(bytes);
+        assertNull(codec.readSnapshot(in, 100));
+        assertEquals(64, codec.lastSize());
+        assertEquals(0, in.available()); // the next message can be read
+    }
+
+    @Test
+    void rejectsCutOffSketch() throws IOException {
+        for (int[] cells : new int[][] {stripes(64), new int[] {1, 2, 3, 4}}) {
+            int size = (int) Math.sqrt(cells.length);
+            byte[] bytes = snapshot(cells, size);
+            for (int length = 0; length < bytes.length; length++) {
+                DataInputStream in = input(Arrays.copyOf(bytes, length));
+                assertThrows(IOException.class, () -> codec.readSnapshot(in, size), "cut at " + length);
+            }
+        }
+    }
+
+    @Test
+    void rejectsBadHeaders() throws IOException {
+        for (int size : new int[] {0, -1, SketchCodec.MAX_SIZE + 1, 65535}) {
+            assertThrows(IOException.class, () -> codec.readSnapshot(input(header(size, 3, new byte[3])), 0));
+        }
+        // a length this big is refused before anything is read or allocated
+        assertThrows(IOException.class,
+                () -> codec.readSnapshot(input(header(SketchCodec.MAX_SIZE, Integer.MAX_VALUE, new byte[0])), 0));
+    }
+
+    @Test
+    void rejectsRunsThatDoNotCoverTheSketch() throws IOException {
+        // 2x2 sketch, palette of one color, then a run of 3 cells and nothing more
+        byte[] tooFew = {0, 1, 0, 0, 0, 7, 0, 2};
+        assertThrows(IOException.class, () -> codec.readSnapshot(input(header(2, tooFew.length, tooFew)), 2));
+        // a run of 5 cells
+        byte[] tooMany = {0, 1, 0, 0, 0, 7, 0, 4};
+        assertThrows(IOException.class, () -> codec.readSnapshot(input(header(2, tooMany.length, tooMany)), 2));
+        // a palette index past the palette
+        byte[] badIndex = {0, 1, 0, 0, 0, 7, 1, 3};
+        assertThrows(IOException.class, () -> codec.readSnapshot(input(header(2, badIndex.length, badIndex)), 2));
+    }
+
+    @Test
+    void diffRoundTrips() throws IOException {
+        int size = 100;
+        int[] before = stripes(size);
+        int[] after = before.clone();
+        for (int i = 0; i < 500; i++) {
+            after[random.nextInt(after.length)] = random.nextInt(20);
+        }
+
+        message.reset();
+        assertTrue(codec.writeDiff(message, before, after, size));
+        DataInputStream in = input(Arrays.copyOf(message.array(), message.size()));
+        int diffSize = in.readInt();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+
+        int[] applied = before.clone();
+        SketchCodec.applyDiff(diffSize, payload, size, (x, y, color) -> applied[y * size + x] = color);
+        assertArrayEquals(after, applied);
+    }
+
+    @Test
+    void diffWithTooManyColorsIsRefused() {
+        int size = 100;
+        int[] before = new int[size * size];
+        int[] after = new int[size * size];
+        for (int i = 0; i <= SketchCodec.MAX_DIFF_COLORS; i++) {
+            after[i] = i + 1;
+        }
+        message.reset();
+        assertFalse(codec.writeDiff(message, before, after, size));
+        assertEquals(0, message.size());
+    }
+
+    @Test
+    void rejectsDiffOfAnotherSize() throws IOException {
+        message.reset();
+        codec.writeDiff(message, new int[4], new int[] {0, 1, 0, 0}, 2);
+        byte[] payload = Arrays.copyOfRange(message.array(), 8, message.size());
+        assertThrows(IOException.class, () -> SketchCodec.applyDiff(2, payload, 3, (x, y, color) -> { }));
+    }
+
+    @Test
+    void rejectsCutOffDiff() throws IOException {
+        int size = 50;
+        int[] before = new int[size * size];
+        int[] after = before.clone();
+        for (int i = 0; i < 40; i++) {
+            after[random.nextInt(after.length)] = 1 + random.nextInt(3);
+        }
+        message.reset();
+        codec.writeDiff(message, before, after, size);
+        byte[] payload = Arrays.copyOfRange(message.array(), 8, message.size());
+        // A cut between two groups leaves a smaller diff, so only cuts inside a group count
+        BitSet groupEnds = new BitSet();
+        for (int pos = 0; pos < payload.length; ) {
+            pos += 8 + input(Arrays.copyOfRange(payload, pos + 4, pos + 8)).readInt();
+            groupEnds.set(pos);
+        }
+        assertTrue(groupEnds.cardinality() > 1);
+        for (int length = 1; length < payload.length; length++) {
+            if (groupEnds.get(length)) continue;
+            byte[] cut = Arrays.copyOf(payload, length);
+            assertThrows(IOException.class, () -> SketchCodec.applyDiff(size, cut, size, (x, y, color) -> { }),
+                    "cut at " + length);
+        }
+    }
+
+    /**
+     * A SKETCH_PACKED message without its type byte
+     */
+    private byte[] snapshot(int[] cells, int size) {
+        message.reset();
+        codec.writeSnapshot(message, cells, size);
+        return Arrays.copyOf(message.array(), message.size());
+    }
+
+    private static byte[] header(int size, int length, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(size);
+        out.writeInt(length);
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Runs of a few colors, long enough to be worth deflating
+     */
+    private static int[] stripes(int size) {
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = BLACK | (i / 37 % 5) * 0x10101;
+        }
+        return cells;
+    }
+}
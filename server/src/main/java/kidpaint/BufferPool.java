@@ -0,0 +1,50 @@
+package kidpaint;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read buffers for NioConnections, shared by all event loops of a server
+ * (and so by every studio of a DedicatedServer).
+ * A connection only holds a buffer while it reads, or while part of a message
+ * is waiting for the rest, so a class of idle kids costs almost no buffers.
+ */
+public class BufferPool {
+    final static int BUFFER_SIZE = 64 * 1024;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final int maxFree;
+
+    /**
+     * @param maxFree buffers kept for reuse; more are left to the garbage collector
+     */
+    public BufferPool(int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * @return an empty buffer of BUFFER_SIZE bytes
+     */
+    ByteBuffer take() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        freeCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Hand back a buffer from take(); bigger ones (for big messages) are not kept
+     */
+    void give(ByteBuffer buffer) {
+        if (buffer.capacity() != BUFFER_SIZE || freeCount.incrementAndGet() > maxFree) {
+            if (buffer.capacity() == BUFFER_SIZE) freeCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
@@ -0,0 +1,134 @@
+package kidpaint;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The server's copy of the sketch, stored in a TiledCanvas.
+ *
+ * Every tile has its own read/write lock. A pixel batch write-locks only
+ * the tiles it touches, so strokes in different parts of the canvas are
+ * applied in parallel. Reading a tile read-locks it, and whole-canvas reads
+ * (snapshots) read-lock every tile, so they never see half a batch.
+ *
+ * Lock order, to stay free of deadlocks: tiles (lowest index first), then PixelRelay,
+ * then OpLog, then clientLock, then SnapshotCache, then a client's OutboundQueue.
+ */
+public class CanvasModel {
+    final int size;
+    final int tilesAcross;
+    private TiledCanvas canvas;
+    private ReentrantReadWriteLock[] locks;
+    private AtomicLong version = new AtomicLong();
+
+    public CanvasModel(int size) {
+        this.size = size;
+        this.canvas = new TiledCanvas(size); // all 0, black
+        this.tilesAcross = canvas.tilesAcross;
+        this.locks = new ReentrantReadWriteLock[tilesAcross * tilesAcross];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Counts every change; a snapshot taken at one version is valid until it changes
+     */
+    long version() {
+        return version.get();
+    }
+
+    boolean contains(int x, int y) {
+        return canvas.contains(x, y);
+    }
+
+    /**
+     * Set into to the tiles a batch of cells falls into, by TiledCanvas.tileIndex()
+     */
+    void tilesOf(CellBuffer cells, BitSet into) {
+        into.clear();
+        for (int i = 0; i < cells.count(); i++) {
+            into.set(canvas.tileIndex(cells.x(i) / TiledCanvas.TILE_SIZE, cells.y(i) / TiledCanvas.TILE_SIZE));
+        }
+    }
+
+    /**
+     * Set the color of a batch of cells, then call relay with the batch
+     * (its tiles filled in) while the touched tiles are still locked, so
+     * changes to the same cells are relayed in the order they were applied.
+     */
+    void applyPixels(PixelBatch batch, Consumer<PixelBatch> relay) {
+        BitSet touched = batch.tiles;
+        tilesOf(batch.cells, touched);
+        for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+            locks[i].writeLock().lock();
+        }
+        try {
+            CellBuffer cells = batch.cells;
+            for (int i = 0; i < cells.count(); i++) {
+                canvas.set(cells.x(i), cells.y(i), batch.color);
+            }
+            version.incrementAndGet();
+            relay.accept(batch);
+        } finally {
+            for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+                locks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replace every cell, then call relay with the canvas as it was before,
+     * while the whole canvas is still locked.
+     * @param newCells size*size colors, row by row
+     */
+    void replaceAll(int[] newCells, Consumer<TiledCanvas> relay) {
+        for (ReentrantReadWriteLock lock : locks) {
+            lock.writeLock().lock();
+        }
+        try {
+            TiledCanvas before = canvas;
+            TiledCanvas after = new TiledCanvas(size);
+            after.setAll(newCells);
+            canvas = after;
+            version.incrementAndGet();
+            relay.accept(before);
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * The live canvas. Only read it while holding the locks of the tiles read.
+     */
+    TiledCanvas canvas() {
+        return canvas;
+    }
+
+    void lockTileForRead(int tileX, int tileY) {
+        locks[canvas.tileIndex(tileX, tileY)].readLock().lock();
+    }
+
+    void unlockTileForRead(int tileX, int tileY) {
+        locks[canvas.tileIndex(tileX, tileY)].readLock().unlock();
+    }
+
+    /**
+     * Block all changes. Reentrant, and allowed while holding write locks.
+     */
+    void lockAllForRead() {
+        for (ReentrantReadWriteLock lock : locks) {
+            lock.readLock().lock();
+        }
+    }
+
+    void unlockAllForRead() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].readLock().unlock();
+        }
+    }
+}
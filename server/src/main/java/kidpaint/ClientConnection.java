@@ -0,0 +1,112 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * One connected kid, as seen by the server.
+ * Implemented by WorkerThread (threaded mode) and NioConnection (NIO mode),
+ * so the server logic does not care how the bytes reach the socket.
+ * send() only puts a frame in the client's OutboundQueue and never blocks;
+ * it throws an IOException when the client overflowed and has to be dropped.
+ */
+public interface ClientConnection {
+
+    /**
+     * The studio this client is in
+     */
+    PaintServerHost studio();
+
+    /**
+     * Join the studio the client's NAME message routed it to; only from then
+     * on it gets that studio's broadcasts. A client that leaves another studio
+     * of the same DedicatedServer drops whatever the old one queued for it.
+     * Runs on the thread reading this client, which is the only one using pixelBatch.
+     */
+    default void join(PaintServerHost studio) {
+        PaintServerHost current = studio();
+        current.clientLock.lock();
+        try {
+            current.clientMap.remove(socket());
+        } finally {
+            current.clientLock.unlock();
+        }
+        if (studio != current) {
+            // Nothing of the old studio is queued after this: broadcasts send while holding its clientLock
+            switchTo(studio);
+        }
+        studio.clientLock.lock();
+        try {
+            studio.clientMap.put(socket(), this);
+            if (isClosed()) {
+                studio.clientMap.remove(socket()); // closed meanwhile, maybe before it was in the map to be taken out
+            }
+        } finally {
+            studio.clientLock.unlock();
+        }
+    }
+
+    /**
+     * Point studio(), the outbound queue and pixelBatch() at another studio (for join())
+     */
+    void switchTo(PaintServerHost studio);
+
+    /**
+     * This client's key in its studio's clientMap
+     */
+    Socket socket();
+
+    /**
+     * @return true once close() was called
+     */
+    boolean isClosed();
+
+    void setUsername(String username);
+
+    /**
+     * @return the name from the NAME message, null until that came in
+     */
+    String getUsername();
+
+    /**
+     * The protocol version agreed in the NAME handshake (1 for old clients)
+     */
+    void setProtocolVersion(int version);
+
+    int getProtocolVersion();
+
+    /**
+     * @return false if a canvas change was dropped for this client since its last whole sketch
+     */
+    boolean isInSync();
+
+    /**
+     * The tiles a version 3 client subscribed to (Viewport.NONE until it subscribes).
+     * Read by every relaying thread, so implementations keep it in a volatile field.
+     */
+    void setViewport(Viewport viewport);
+
+    Viewport getViewport();
+
+    /**
+     * The batch this client's pixel messages are read into, reused for every message.
+     * Only touched by the thread reading this client.
+     */
+    PixelBatch pixelBatch();
+
+    /**
+     * Queue an encoded message for this client. The same Frame is shared
+     * by every client of a broadcast, so it must not be modified.
+     */
+    void send(Frame frame) throws IOException;
+
+    /**
+     * Frames queued for this client and not written yet
+     */
+    int backlog();
+
+    /**
+     * Drop the connection
+     */
+    void close();
+}
@@ -0,0 +1,119 @@
+package kidpaint;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A server without the JavaFX client, hosting many studios in one JVM,
+ * e.g. on a school's machine for every class at once:
+ *
+ *   java -cp protocol/target/classes:server/target/classes kidpaint.DedicatedServer
+ *        --port=12345 --studios="Class 1A,Class 1B,Art club" --server=nio
+ *
+ * All studios share the port, the listening thread and, in NIO mode, the
+ * event loops with their read buffers; UDP discovery lists every studio.
+ * A client names its studio in the NAME message (after the version byte)
+ * and is moved there; clients that name none or an unknown one join the
+ * first studio. Each studio has its own canvas, OpLog, metrics and, with
+ * --journal=<dir>, its own journal in a folder of that directory.
+ * The other options are the ones of ServerConfig and apply to every studio.
+ */
+public class DedicatedServer implements Runnable {
+    final static int DEFAULT_PORT = 12345;
+
+    final int port;
+    // By name, in the order given; the first one takes new clients until they name theirs
+    private final Map<String, PaintServerHost> studios = new LinkedHashMap<>();
+    private PaintServerHost lobby;
+    private Thread udpListenerThread;
+
+    public DedicatedServer(int port, List<String> studioNames, Map<String, String> named) {
+        this.port = port;
+        for (String name : studioNames) {
+            ServerConfig config = ServerConfig.fromArgs(named);
+            if (config.journal != null) {
+                config.journal = Paths.get(config.journal, folderName(name)).toString();
+            }
+            studios.put(name, new PaintServerHost(this, name, config));
+        }
+        lobby = studios.values().iterator().next();
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> named = ServerConfig.namedArgs(args);
+        int port = Integer.parseInt(named.getOrDefault("port", String.valueOf(DEFAULT_PORT)).trim());
+        List<String> names = new ArrayList<>();
+        for (String name : named.getOrDefault("studios", "KidPaint Studio").split(",")) {
+            // ':' separates the fields of a discovery reply
+            name = name.trim().replace(':', ' ');
+            if (!name.isEmpty() && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            System.out.println("No studio to host, give them as --studios=<name>,<name>,...");
+            return;
+        }
+
+        DedicatedServer server = new DedicatedServer(port, names, named);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        System.out.println("Hosting " + names.size() + " studio(s) on port " + port + ": " + String.join(", ", names));
+        server.run();
+    }
+
+    /**
+     * Start every studio and accept clients until stopped
+     */
+    @Override
+    public void run() {
+        udpListenerThread = new Thread(new UdpBroadcastListener(new ArrayList<>(studios.keySet()), port), "discovery");
+        udpListenerThread.setDaemon(true);
+        udpListenerThread.start();
+        for (PaintServerHost studio : studios.values()) {
+            studio.startStudio();
+        }
+        lobby.listen();
+    }
+
+    /**
+     * Stop listening and every studio (flushing their journals)
+     */
+    public void stop() {
+        if (udpListenerThread != null) {
+            udpListenerThread.interrupt();
+        }
+        lobby.stopServer();
+        for (PaintServerHost studio : studios.values()) {
+            if (studio != lobby) {
+                studio.stopStudio();
+            }
+        }
+    }
+
+    /**
+     * The studio a client named in its NAME message
+     * @param name the name, or null if the client named none
+     * @param current the studio the client is in now
+     */
+    PaintServerHost route(String name, PaintServerHost current) {
+        if (name == null) {
+            return current;
+        }
+        PaintServerHost studio = studios.get(name);
+        if (studio == null) {
+            Log.info("No studio \"" + name + "\", staying in " + current.getStudioName());
+            return current;
+        }
+        return studio;
+    }
+
+    /**
+     * A folder name for a studio's journal, without characters file systems refuse
+     */
+    static String folderName(String studioName) {
+        return studioName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,59 @@
+package kidpaint;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Message builders and codecs for encoding frames, lent to whichever thread
+ * encodes one. With a builder per thread, VIRTUAL mode would keep one (and
+ * its frame chunk) for every kid; the pool only holds as many as encode at
+ * the same time. Like BufferPool, extra ones made at a peak are dropped.
+ */
+public class EncoderPool {
+    static class Encoder {
+        final MessageBuilder message = new MessageBuilder(4096);
+        final PixelCodec pixels = new PixelCodec();
+        final SketchCodec sketches = new SketchCodec();
+    }
+
+    private final ConcurrentLinkedQueue<Encoder> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final int maxFree;
+
+    /**
+     * @param maxFree encoders kept for reuse; more are left to the garbage collector
+     */
+    public EncoderPool(int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    Encoder take() {
+        Encoder encoder = free.poll();
+        if (encoder == null) {
+            return new Encoder();
+        }
+        freeCount.decrementAndGet();
+        return encoder;
+    }
+
+    void give(Encoder encoder) {
+        if (freeCount.incrementAndGet() > maxFree) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        free.offer(encoder);
+    }
+
+    /**
+     * Encode one frame with a lent encoder
+     */
+    Frame encode(Function<Encoder, Frame> encode) {
+        Encoder encoder = take();
+        try {
+            return encode.apply(encoder);
+        } finally {
+            give(encoder);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package kidpaint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in nanoseconds, counted in log-linear buckets the way an HDR
+ * histogram does: every power of two is split into SUB_BUCKETS buckets, so a
+ * percentile is within about 3% of the real value whether it is 5 us or 5 s.
+ * Recording is one atomic increment of the bucket plus two LongAdders,
+ * and the max is only written when a sample beats it; it never allocates,
+ * and any thread may record while another reads.
+ */
+public class LatencyHistogram {
+    final static int SUB_BITS = 5;
+    final static int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((65 - SUB_BITS) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        if (nanos > max.get()) { // racy, so the usual sample costs no CAS
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percent e.g. 99.9
+     * @return the highest value in the bucket that holds that percentile, 0 if nothing was recorded
+     */
+    long percentile(double percent) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Start counting from zero, e.g. after a warm-up
+     */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each; above, the top SUB_BITS + 1
+     * bits pick the bucket within the value's power of two
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * "p50 1.20 ms  p99 4.10 ms  p99.9 9.80 ms  max 12.0 ms", for the reports
+     */
+    String summary() {
+        return String.format("p50 %s  p90 %s  p99 %s  p99.9 %s  max %s",
+                millis(percentile(50)), millis(percentile(90)), millis(percentile(99)),
+                millis(percentile(99.9)), millis(max()));
+    }
+
+    static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
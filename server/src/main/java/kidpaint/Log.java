@@ -0,0 +1,35 @@
+package kidpaint;
+
+/**
+ * The server's log (--log=off|warn|info|debug, default off).
+ *   WARN  - something went wrong but the server carries on
+ *   INFO  - the server and its clients come and go
+ *   DEBUG - every chat line, sketch and resume; far too much for a full class
+ * Lines are only built when their level is on: callers that put a line
+ * together on a busy path check isEnabled() first.
+ */
+public class Log {
+    enum Level { OFF, WARN, INFO, DEBUG }
+
+    private static volatile Level level = Level.OFF;
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    static boolean isEnabled(Level wanted) {
+        return wanted.ordinal() <= level.ordinal();
+    }
+
+    static void warn(String line) {
+        if (isEnabled(Level.WARN)) System.out.println(line);
+    }
+
+    static void info(String line) {
+        if (isEnabled(Level.INFO)) System.out.println(line);
+    }
+
+    static void debug(String line) {
+        if (isEnabled(Level.DEBUG)) System.out.println(line);
+    }
+}
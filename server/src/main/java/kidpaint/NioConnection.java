@@ -0,0 +1,246 @@
+package kidpaint;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client served by an NioEventLoop.
+ * Incoming bytes collect in readBuffer until a whole message is there,
+ * in a buffer borrowed from the loop's BufferPool only while there are any;
+ * then the message is handed to PaintServerHost.dispatch() like in threaded mode.
+ * Outgoing frames wait in an OutboundQueue until the socket can take them.
+ */
+public class NioConnection implements ClientConnection {
+    // Refuse messages bigger than this (a 4096x4096 sketch is 64 MB)
+    final static int MAX_MESSAGE_SIZE = 64 * 1024 * 1024 + 5;
+
+    private volatile PaintServerHost server; // changes if a DedicatedServer moves the client
+    private NioEventLoop loop;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private String username;
+    private int protocolVersion = 1;
+    private volatile Viewport viewport = Viewport.NONE;
+
+    private ByteBuffer readBuffer; // null while no part of a message is waiting
+    private OutboundQueue queue;
+    private PixelBatch pixelBatch;
+    private ByteBuffer current; // frame being written
+    private boolean writeScheduled = false;
+    private boolean closed = false;
+
+    public NioConnection(PaintServerHost server, NioEventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.queue = new OutboundQueue(server, this, server.config.queueLimit, server.config.overflowPolicy);
+        this.pixelBatch = new PixelBatch(server.canvas.size);
+    }
+
+    public PaintServerHost studio() {
+        return server;
+    }
+
+    public void switchTo(PaintServerHost studio) {
+        queue.moveTo(studio);
+        pixelBatch = new PixelBatch(studio.canvas.size);
+        server = studio;
+    }
+
+    public Socket socket() {
+        return channel.socket();
+    }
+
+    public boolean isClosed() {
+        return queue.isClosed();
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setProtocolVersion(int version) {
+        this.protocolVersion = version;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public boolean isInSync() {
+        return queue.isInSync();
+    }
+
+    public void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public PixelBatch pixelBatch() {
+        return pixelBatch;
+    }
+
+    /**
+     * Read what is available and handle every complete message.
+     */
+    void onReadable() throws IOException {
+        if (readBuffer == null) {
+            readBuffer = loop.buffers.take();
+        }
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            throw new IOException("Client closed the connection");
+        }
+        server.metrics.bytesIn.add(read);
+
+        readBuffer.flip();
+        while (true) {
+            int length = messageLength(readBuffer);
+            if (length < 0 || readBuffer.remaining() < length) {
+                break;
+            }
+
+            int start = readBuffer.position();
+            int type = readBuffer.get(start) & 0xFF;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    readBuffer.array(), readBuffer.arrayOffset() + start + 1, length - 1));
+            server.dispatch(type, in, this);
+            readBuffer.position(start + length);
+        }
+
+        // Make room for a message that does not fit yet
+        int needed = messageLength(readBuffer);
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(needed);
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        } else if (!readBuffer.hasRemaining()) {
+            // Every message handled, the buffer can serve another client
+            loop.buffers.give(readBuffer);
+            readBuffer = null;
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Work out the total length of the message at the buffer position
+     * from its header, using the same layout the threaded server reads.
+     * @return the length in bytes, or -1 if the header is not complete yet
+     */
+    int messageLength(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        if (available < 1) return -1;
+
+        int type = buffer.get(start) & 0xFF;
+        long length;
+        if (type == server.NAME || type == server.MESSAGE) {
+            if (available < 5) return -1;
+            length = 5L + buffer.getInt(start + 1);
+        } else if (type == server.PIXELS) {
+            if (available < 9) return -1;
+            length = 9L + 8L * buffer.getInt(start + 5);
+        } else if (type == server.PIXELS_RUNS || type == server.SKETCH_PACKED) {
+            if (available < 9) return -1;
+            length = 9L + buffer.getInt(start + 5);
+        } else if (type == server.SUBSCRIBE) {
+            length = 17;
+        } else if (type == server.RESUME) {
+            length = 25;
+        } else if (type == server.FULL_SKETCH_UPDATE) {
+            if (available < 5) return -1;
+            long size = buffer.getInt(start + 1);
+            length = 5L + 4L * size * size;
+        } else {
+            return 1; // unknown type, skip the byte like the threaded server does
+        }
+
+        if (length < 1 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Bad message length " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Queue a frame for sending. Never blocks; may be called from any thread.
+     */
+    public void send(Frame frame) throws IOException {
+        if (!queue.offer(frame)) {
+            throw new IOException("outbound queue overflow");
+        }
+        synchronized (this) {
+            if (closed || writeScheduled) return;
+            writeScheduled = true;
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+        }
+        if (!loop.inLoop()) {
+            loop.wakeup();
+        }
+    }
+
+    /**
+     * Write as many queued frames as the socket takes.
+     */
+    void onWritable() throws IOException {
+        while (true) {
+            if (current == null) {
+                // Not under this connection's lock: poll() may have to encode a sketch
+                Frame frame = queue.poll();
+                if (frame == null) {
+                    synchronized (this) {
+                        // A send() between poll() and here saw writeScheduled and left it to us
+                        if (!queue.isEmpty()) continue;
+                        writeScheduled = false;
+                        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                current = frame.data();
+                server.metrics.frameOut(frame); // counted when its first bytes go out
+            }
+            channel.write(current);
+            if (current.hasRemaining()) {
+                return; // socket buffer is full, wait for the next OP_WRITE
+            }
+            current = null;
+        }
+    }
+
+    public int backlog() {
+        return queue.size();
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        queue.close();
+        server.clientLock.lock();
+        try {
+            server.clientMap.remove(channel.socket());
+        } finally {
+            server.clientLock.unlock();
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread serving many clients.
+ * New channels are handed over through a queue because only the loop
+ * thread may register them with its selector.
+ */
+public class NioEventLoop implements Runnable {
+    private PaintServerHost server;
+    final BufferPool buffers;
+    private Selector selector;
+    private ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private Thread loopThread;
+    private volatile boolean running = true;
+
+    public NioEventLoop(PaintServerHost server, BufferPool buffers) throws IOException {
+        this.server = server;
+        this.buffers = buffers;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Called by the accepting thread
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        try {
+            while (running) {
+                selector.select();
+                registerNewChannels();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        Log.info("Disconnected!");
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // A message the server cannot handle only costs its sender the connection
+                        Log.warn("Dropping " + connection.getUsername() + ": " + e);
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Event loop stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(server.config.tcpNoDelay);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(server, this, channel, key);
+                key.attach(connection); // joins a studio once its NAME message is routed
+            } catch (IOException e) {
+                Log.warn("Could not register client: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
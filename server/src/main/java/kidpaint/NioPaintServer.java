@@ -0,0 +1,77 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking server mode.
+ * The calling thread accepts new clients and hands each one to one of a
+ * fixed number of NioEventLoop threads, which do all the reading and writing.
+ * The loops share one BufferPool of read buffers.
+ */
+public class NioPaintServer {
+    // Read buffers kept for reuse per event loop
+    final static int POOLED_BUFFERS_PER_LOOP = 16;
+
+    private PaintServerHost server;
+    private int port;
+    private NioEventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop = 0;
+
+    public NioPaintServer(PaintServerHost server, int port, int ioThreads) {
+        this.server = server;
+        this.port = port;
+        this.loops = new NioEventLoop[ioThreads];
+    }
+
+    /**
+     * Start the event loops and accept clients until the server is stopped.
+     */
+    public void run() throws IOException {
+        BufferPool buffers = new BufferPool(loops.length * POOLED_BUFFERS_PER_LOOP);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(server, buffers);
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        Log.info("NIO server started on port: " + port + " with " + loops.length + " event loop(s)");
+
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // blocking accept
+                Log.info("New client connected!");
+
+                // Spread the clients over the loops round-robin
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Close the listening socket and all event loops.
+     */
+    public void stop() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        for (NioEventLoop loop : loops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+}
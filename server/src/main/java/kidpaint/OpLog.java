@@ -0,0 +1,199 @@
+package kidpaint;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The last changes applied to the server's canvas, so a client that lost
+ * its connection can get just what it missed instead of the whole canvas.
+ *
+ * Every pixel batch and every whole-sketch replace gets the next sequence
+ * number. The newest capacity batches are kept in a ring, their cells in
+ * one shared ring of MAX_CELLS ints; the oldest batches are dropped when
+ * either fills up. A replace keeps no cells: it is a barrier that nobody
+ * from before it can be caught up across.
+ * Numbers start at the start time in milliseconds << 20, so a restarted
+ * server never accepts a number handed out by the one before.
+ *
+ * Appends and reads hold the log's lock only briefly (a ReentrantLock, so
+ * VIRTUAL mode threads waiting for it do not pin their carrier); relays of batches
+ * in different tiles run at the same time, so they can reach a client out
+ * of order. A client is therefore only told relayed(): the newest number
+ * whose batch and every batch before it went to every client (see
+ * PaintServerHost.forwardPixels()). PixelRelay sends one tick at a time
+ * and tells clients its own numbers.
+ */
+public class OpLog {
+    // Cells kept for all logged batches together (4 MB); a bigger batch is logged as a barrier
+    final static int MAX_CELLS = 1 << 20;
+
+    final int size; // canvas size, cells are y * size + x
+    // Held by callers that read several numbers that must fit together, e.g. a replay
+    final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+    private final int[] colors;
+    private final int[] starts;   // first cell in the cell ring
+    private final int[] counts;   // number of cells, -1 for a barrier
+    private final int[] cells = new int[MAX_CELLS];
+    private long first;           // oldest sequence number still in the ring
+    private long next;            // sequence number of the next change
+    private long barrier;         // newest barrier
+    private long relayed;         // every change up to here went to every client
+    private final long[] relayedSeqs; // per slot, the sequence number whose relay finished there
+    private int cellHead = 0;     // where the next batch's cells go
+    private long usedCells = 0;
+
+    public OpLog(int size, int capacity) {
+        this.size = size;
+        this.capacity = capacity;
+        this.colors = new int[capacity];
+        this.starts = new int[capacity];
+        this.counts = new int[capacity];
+        this.relayedSeqs = new long[capacity];
+        this.next = System.currentTimeMillis() << 20;
+        this.first = next;
+        this.barrier = next - 1;
+        this.relayed = next - 1;
+    }
+
+    /**
+     * Log a pixel batch
+     * @return its sequence number
+     */
+    long appendPixels(int color, CellBuffer batch) {
+        int count = batch.count();
+        if (count > MAX_CELLS) {
+            return appendBarrier();
+        }
+        lock.lock();
+        try {
+            while (next - first == capacity || usedCells + count > MAX_CELLS) {
+                dropOldest();
+            }
+            int slot = slot(next);
+            colors[slot] = color;
+            starts[slot] = cellHead;
+            counts[slot] = count;
+            for (int i = 0; i < count; i++) {
+                cells[cellHead] = batch.index(i);
+                cellHead = (cellHead + 1) % MAX_CELLS;
+            }
+            usedCells += count;
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Log a whole-sketch replace
+     * @return its sequence number
+     */
+    long appendBarrier() {
+        lock.lock();
+        try {
+            if (next - first == capacity) {
+                dropOldest();
+            }
+            counts[slot(next)] = -1;
+            barrier = next;
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the newest change (before the first change, one less than the first)
+     */
+    long last() {
+        lock.lock();
+        try {
+            return next - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the newest whole-sketch replace (before any, one less than the first change)
+     */
+    long lastBarrier() {
+        lock.lock();
+        try {
+            return barrier;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the newest sequence number that every client got, with all before it
+     */
+    long relayed() {
+        lock.lock();
+        try {
+            return relayed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Note that a change went to every client. Changes that already left the
+     * ring count as relayed, nobody can be caught up across them anyway.
+     */
+    void markRelayed(long seq) {
+        lock.lock();
+        try {
+            if (seq >= first) {
+                relayedSeqs[slot(seq)] = seq;
+            }
+            while (relayed < next - 1 && (relayed + 1 < first || relayedSeqs[slot(relayed + 1)] == relayed + 1)) {
+                relayed++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if every change after seen is still here and none of them is a barrier
+     */
+    boolean canReplayAfter(long seen) {
+        lock.lock();
+        try {
+            return seen >= barrier && seen >= first - 1 && seen <= next - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The reads of a logged batch below are made while the caller holds lock
+
+    int color(long seq) {
+        return colors[slot(seq)];
+    }
+
+    int cellCount(long seq) {
+        return counts[slot(seq)];
+    }
+
+    /**
+     * The i-th cell of a pixel batch, as y * size + x
+     */
+    int cell(long seq, int i) {
+        return cells[(starts[slot(seq)] + i) % MAX_CELLS];
+    }
+
+    private void dropOldest() {
+        int count = counts[slot(first)];
+        if (count > 0) {
+            usedCells -= count;
+        }
+        first++;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,220 @@
+package kidpaint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of frames waiting to be written to one client.
+ * Broadcasts only add to it, so a slow client cannot stall the others;
+ * the client's own writer takes the frames out.
+ * When the queue is full the server's OverflowPolicy decides what happens.
+ * Guarded by a lock rather than the queue's monitor: a writer on a virtual
+ * thread waiting in take() must not pin its carrier thread.
+ */
+public class OutboundQueue {
+    // Stands for "the whole canvas, as it is when this is written".
+    // Encoding needs the canvas locks, which must not be taken while holding this queue.
+    private final static Frame SNAPSHOT_MARKER = new Frame(-1, ByteBuffer.allocate(0));
+
+    private volatile PaintServerHost server;
+    private ClientConnection client;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private int capacity;
+    private ServerConfig.OverflowPolicy policy;
+    private boolean closed = false;
+    // False once a canvas change was dropped, until the next whole sketch is queued
+    private boolean inSync = true;
+
+    public OutboundQueue(PaintServerHost server, ClientConnection client, int capacity,
+                         ServerConfig.OverflowPolicy policy) {
+        this.server = server;
+        this.client = client;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a frame without blocking.
+     * @return false if the client overflowed and must be disconnected
+     */
+    boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) return true;
+
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case DROP:
+                        // this client misses the frame, and gets a full sketch once there is room
+                        if (isCanvasChange(frame)) inSync = false;
+                        return true;
+                    case RESYNC:
+                        if (!resync(frame)) return false;
+                        notEmpty.signalAll();
+                        return true;
+                    case DISCONNECT:
+                    default:
+                        return false;
+                }
+            }
+
+            if (!inSync && policy == ServerConfig.OverflowPolicy.DROP && !isSnapshot(frame)
+                    && frames.size() + 1 < capacity) {
+                // Without it the client would never get the dropped changes
+                frames.add(SNAPSHOT_MARKER);
+                inSync = true;
+            }
+            frames.add(frame);
+            if (isSnapshot(frame)) inSync = true;
+            notEmpty.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the client will have the server's canvas once it read
+     *         everything queued so far, so a SKETCH_DIFF can be applied on top
+     */
+    boolean isInSync() {
+        lock.lock();
+        try {
+            return inSync;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Throw away every queued canvas change and queue one full sketch instead.
+     * The sketch is taken when the marker is written, so it contains the
+     * dropped changes; changes queued after the marker only set cells to the
+     * colors they already have in it.
+     */
+    private boolean resync(Frame frame) {
+        Iterator<Frame> it = frames.iterator();
+        while (it.hasNext()) {
+            if (isCanvasChange(it.next())) {
+                it.remove();
+            }
+        }
+        if (!isCanvasChange(frame)) {
+            frames.add(frame);
+        }
+        frames.add(SNAPSHOT_MARKER);
+        inSync = true;
+
+        // Still too full: the client is not reading at all
+        return frames.size() <= capacity;
+    }
+
+    private boolean isCanvasChange(Frame frame) {
+        return frame.type == server.PIXELS || frame.type == server.PIXELS_RUNS
+                || frame.type == server.FULL_SKETCH_UPDATE || frame.type == server.SKETCH_PACKED
+                || frame.type == server.SKETCH_DIFF || frame.type == server.TILE;
+    }
+
+    private boolean isSnapshot(Frame frame) {
+        if (frame == SNAPSHOT_MARKER) return true;
+        return frame.type == server.FULL_SKETCH || frame.type == server.FULL_SKETCH_UPDATE
+                || frame.type == server.SKETCH_PACKED;
+    }
+
+    /**
+     * @return the next frame, or null if the queue is empty
+     */
+    Frame poll() {
+        Frame frame;
+        lock.lock();
+        try {
+            frame = frames.poll();
+        } finally {
+            lock.unlock();
+        }
+        return resolve(frame);
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next frame.
+     * @return the frame, or null once the queue is closed
+     */
+    Frame take() throws InterruptedException {
+        Frame frame;
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            frame = closed ? null : frames.poll();
+        } finally {
+            lock.unlock();
+        }
+        return resolve(frame);
+    }
+
+    /**
+     * Turn a resync marker into the sketch it stands for. Called without holding the queue.
+     */
+    private Frame resolve(Frame frame) {
+        if (frame != SNAPSHOT_MARKER) return frame;
+        return server.snapshotFor(client, server.FULL_SKETCH_UPDATE);
+    }
+
+    /**
+     * The client moved to another studio: forget the old studio's frames
+     */
+    void moveTo(PaintServerHost studio) {
+        lock.lock();
+        try {
+            server = studio;
+            frames.clear();
+            inSync = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,932 @@
+package kidpaint;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * This class runs as a server on a separate thread
+ * inside a host client's application.
+ * In a DedicatedServer it is one of many studios, which share the
+ * listening socket and the I/O threads and do not listen themselves.
+ */
+public class PaintServerHost implements Runnable {
+
+    // The clients that joined this studio, each once its NAME message was routed here
+    HashMap<Socket, ClientConnection> clientMap = new HashMap<>();
+    // Guards clientMap. A lock and not a monitor, so a virtual thread waiting for it does not pin its carrier
+    final ReentrantLock clientLock = new ReentrantLock();
+    CanvasModel canvas;
+    OpLog opLog;
+    SnapshotCache snapshots = new SnapshotCache(this);
+    ServerMetrics metrics;
+
+    // Message Type Constants
+    final int NAME = 0;
+    final int PIXELS = 1;
+    final int MESSAGE = 2;
+    final int FULL_SKETCH = 3;
+    final int FULL_SKETCH_UPDATE = 4;
+    final int VERSION = 5;       // server -> client: int agreed protocol version
+    final int PIXELS_RUNS = 6;   // PIXELS in the compact PixelCodec format (version 2)
+    final int SKETCH_PACKED = 7; // whole canvas in the SketchCodec format (version 2)
+    final int SKETCH_DIFF = 8;   // server -> client: cells changed by a full sketch update (version 2)
+    final int CANVAS_INFO = 9;   // server -> client: int size, int tileSize (version 3, instead of the sketch)
+    final int SUBSCRIBE = 10;    // client -> server: int firstTileX, firstTileY, lastTileX, lastTileY (version 3)
+    final int TILE = 11;         // server -> client: int tileX, int tileY, one tile in the SketchCodec format (version 3)
+    final int SEQUENCE = 12;     // server -> client: long, the OpLog number of the last change sent (version 4)
+    final int RESUME = 13;       // client -> server: long last SEQUENCE seen, int firstTileX, firstTileY,
+                                 // lastTileX, lastTileY of the tiles it still has (version 4, instead of SUBSCRIBE)
+
+    // Highest protocol version this server speaks.
+    // Clients announce theirs after the name in the NAME message: name bytes, 0, version byte.
+    // Version 3 clients only get the tiles of their viewport instead of the whole canvas.
+    // Version 4 clients are told the sequence number of the changes and can resume after a reconnect.
+    final static int PROTOCOL_VERSION = 4;
+
+    private int port;
+    private ServerSocket serverSocket;
+    private String studioName;
+    private DedicatedServer host; // null when this server listens on its own
+    private Thread udpListenerThread;
+    ServerConfig config;
+    private NioPaintServer nioServer;
+    private PixelRelay pixelRelay; // null unless config.relayTick > 0
+    private StudioJournal journal; // null unless config.journal is set
+    private Thread pixelRelayThread;
+
+    /**
+     * Constructor just sets the port.
+     * The server socket is not created yet.
+     */
+    public PaintServerHost(int port, String studioName) {
+        this(port, studioName, new ServerConfig());
+    }
+
+    public PaintServerHost(int port, String studioName, ServerConfig config) {
+        this.port = port;
+        this.studioName = studioName;
+        this.config = config;
+        this.metrics = new ServerMetrics(this, studioName);
+        Log.setLevel(config.logLevel);
+        int size = config.canvasSize;
+        int[] stored = null;
+        if (config.journal != null) {
+            journal = new StudioJournal(Paths.get(config.journal), config.journalSync, config.snapshotEvery * 1000L);
+            try {
+                stored = journal.recover();
+            } catch (IOException e) {
+                Log.warn("Could not recover the studio, starting empty: " + e.getMessage());
+            }
+            if (stored != null) {
+                size = journal.size(); // the stored studio keeps its size
+            }
+        }
+        this.canvas = new CanvasModel(size);
+        this.opLog = new OpLog(size, config.opLog);
+        if (stored != null) {
+            canvas.replaceAll(stored, before -> {});
+        }
+        if (config.relayTick > 0) {
+            pixelRelay = new PixelRelay(this, config.relayTick);
+            relayPixels = pixelRelay::add;
+        }
+    }
+
+    /**
+     * A studio of a DedicatedServer, which accepts its clients for it
+     */
+    public PaintServerHost(DedicatedServer host, String studioName, ServerConfig config) {
+        this(host.port, studioName, config);
+        this.host = host;
+    }
+
+    String getStudioName() {
+        return studioName;
+    }
+
+    /**
+     * This is the main loop for the server thread.
+     */
+    @Override
+    public void run() {
+        UdpBroadcastListener udpListener = new UdpBroadcastListener(List.of(studioName), port);
+        udpListenerThread = new Thread(udpListener);
+        udpListenerThread.start();
+        startStudio();
+        listen();
+    }
+
+    /**
+     * Start what runs beside the connections: the pixel relay, the metrics and the journal
+     */
+    void startStudio() {
+        if (pixelRelay != null) {
+            pixelRelayThread = new Thread(pixelRelay, "pixel-relay");
+            pixelRelayThread.setDaemon(true);
+            pixelRelayThread.start();
+        }
+        metrics.start(config.metricsEvery);
+        if (journal != null) {
+            try {
+                journal.start(this);
+            } catch (IOException e) {
+                Log.warn("Studio journal not started: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accept clients until the server is stopped. Every client starts in
+     * this studio; a DedicatedServer moves it to the one it names.
+     */
+    void listen() {
+        try {
+            if (config.mode == ServerConfig.Mode.NIO) {
+                nioServer = new NioPaintServer(this, port, config.ioThreads);
+                nioServer.run();
+                return;
+            }
+
+            boolean virtual = config.mode == ServerConfig.Mode.VIRTUAL;
+
+            // Opened through a channel so worker threads can write frames without copying them
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port)).socket();
+            Log.info("Server started on port: " + port + (virtual ? " (virtual threads)" : ""));
+            while(true){
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(config.tcpNoDelay);
+                Log.info("New client connected!");
+
+                // Create a worker thread for this client
+                // It joins a studio, and gets its broadcasts, once its NAME message is routed
+                WorkerThread thread = new WorkerThread(socket, this, virtual);
+                thread.startServing();
+            }
+        } catch (IOException e) {
+            Log.info("Server was shut down: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the server by closing the ServerSocket.
+     * This will cause the .accept() loop to throw an exception.
+     */
+
+    public void stopServer() {
+        if (udpListenerThread != null) {
+            udpListenerThread.interrupt(); // Stop the UDP listener
+        }
+        stopStudio();
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Stop what startStudio() started; the clients are left to the listener
+     */
+    void stopStudio() {
+        if (pixelRelayThread != null) {
+            pixelRelayThread.interrupt();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        metrics.stop();
+    }
+
+    // --- All original server logic methods below ---
+
+    void serve(Socket socket, WorkerThread thread) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                ServerMetrics.countBytesIn(socket.getInputStream(), thread), 64 * 1024));
+
+        while(true){
+            int type = in.read();
+            if (type < 0) {
+                throw new EOFException("Client closed the connection");
+            }
+            thread.studio().dispatch(type, in, thread); // the studio changes once the client named one
+        }
+    }
+
+    /**
+     * Handle one message from a client. The type byte has already been read;
+     * the rest of the message is read from 'in'.
+     * Shared by the threaded and the NIO server.
+     * A client must name itself first, and only once: until then it is in no
+     * studio, and must not draw on one. Otherwise it is dropped.
+     */
+    void dispatch(int type, DataInputStream in, ClientConnection client) throws IOException {
+        metrics.messageIn(type);
+        boolean named = client.getUsername() != null;
+        if (type == NAME && named) {
+            throw new IOException("Second NAME message from " + client.getUsername());
+        }
+        if (type != NAME && !named) {
+            throw new IOException("Message " + type + " before NAME");
+        }
+        switch(type){
+            case NAME: //NAME
+                String wanted = receiveName(in, client);
+                PaintServerHost studio = host == null ? this : host.route(wanted, this);
+                client.join(studio);
+                studio.welcome(client);
+                break;
+            case SUBSCRIBE:
+                receiveSubscribe(in, client);
+                break;
+            case RESUME:
+                receiveResume(in, client);
+                break;
+            case PIXELS: //PIXELS
+                receivePixels(in, client.pixelBatch());
+                break;
+            case PIXELS_RUNS:
+                receivePixelRuns(in, client.pixelBatch());
+                break;
+            case MESSAGE: //MESSAGE
+                receiveMsg(in, client.getUsername());
+                break;
+            case FULL_SKETCH_UPDATE:
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug("Receiving full sketch update from " + client.getUsername());
+                }
+                receiveFullSketchUpdate(in);
+                break;
+            case SKETCH_PACKED:
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug("Receiving packed sketch update from " + client.getUsername());
+                }
+                receivePackedSketchUpdate(in);
+                break;
+        }
+    }
+
+    /**
+     * Answer a client's NAME message
+     */
+    void welcome(ClientConnection client) throws IOException {
+        if (client.getProtocolVersion() >= 2) {
+            // Only clients that announced a version understand this message
+            client.send(encodeVersion(client.getProtocolVersion()));
+        }
+        if (client.getProtocolVersion() >= 3) {
+            // The client subscribes to the tiles it shows once it knows the size
+            client.send(encodeCanvasInfo());
+        } else {
+            sendFullSketch(client);
+        }
+    }
+
+    void receiveMsg(DataInputStream in, String username) throws IOException {
+        int size = in.readInt();
+
+        byte[] buffer = new byte[size];
+        in.readFully(buffer, 0, size);
+
+        String text = username + ": " + new String(buffer, 0, size);
+        Log.debug(text);
+
+        forwardMsg(text.getBytes());
+    }
+
+    void forwardMsg(byte[] buffer) {
+        long start = System.nanoTime();
+        broadcast(encodeMsg(buffer));
+        metrics.chatRelay.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Read a PIXELS message into the client's batch and apply it
+     */
+    void receivePixels(DataInputStream in, PixelBatch batch) throws IOException {
+        batch.begin(in.readInt());
+        int len = in.readInt();
+
+        for (int i=0; i<len; i++){
+            int x = in.readInt();
+            int y = in.readInt();
+            checkCell(x, y);
+
+            batch.cells.add(x, y);
+        }
+
+        applyPixels(batch);
+    }
+
+    void receivePixelRuns(DataInputStream in, PixelBatch batch) throws IOException {
+        batch.begin(in.readInt());
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("Bad pixel runs length");
+        }
+        byte[] buffer = batch.payload(len);
+        in.readFully(buffer, 0, len);
+
+        batch.codec.decode(buffer, len, batch.cells);
+
+        applyPixels(batch);
+    }
+
+    // forwardPixels, or PixelRelay.add when relaying in ticks
+    private Consumer<PixelBatch> relayPixels = this::forwardPixels;
+
+    /**
+     * Change the canvas and relay the change. The relay happens while the
+     * touched tiles are still locked, so every client sees changes to the same
+     * cells in the order they were applied here, which SKETCH_DIFF relies on.
+     * Batches in other tiles are applied and relayed at the same time.
+     * With a relay tick the change is only merged here and sent by PixelRelay.
+     */
+    void applyPixels(PixelBatch batch) {
+        long start = System.nanoTime();
+        canvas.applyPixels(batch, relayPixels);
+        if (pixelRelay == null) {
+            metrics.pixelRelay.record(System.nanoTime() - start);
+        }
+    }
+
+    void checkCell(int x, int y) throws IOException {
+        if (!canvas.contains(x, y)) {
+            throw new IOException("Pixel (" + x + ", " + y + ") is outside the canvas");
+        }
+    }
+
+    /**
+     * Log and relay an applied batch. Version 3 clients only get it if one of
+     * the batch's tiles is in their viewport. The log is only locked to take
+     * the number, so batches in other tiles are relayed at the same time; the
+     * SEQUENCE sent along is the newest number every client already has.
+     */
+    void forwardPixels(PixelBatch batch) {
+        long seq = opLog.appendPixels(batch.color, batch.cells);
+        long relayed = opLog.relayed();
+        try {
+            // Encode once per format, every client of that version gets the same bytes
+            Frame[] frames = new Frame[3];
+            broadcast(client -> {
+                if (client.getProtocolVersion() >= 3 && !sees(client.getViewport(), batch.tiles)) {
+                    return null;
+                }
+                int format = pixelFormat(client);
+                if (frames[format] == null) {
+                    frames[format] = format == 0 ? encodePixels(batch.color, batch.cells)
+                                                 : encodePixelRuns(batch.color, batch.cells, format == 2 ? relayed : -1);
+                }
+                return frames[format];
+            });
+        } finally {
+            opLog.markRelayed(seq);
+        }
+    }
+
+    /**
+     * @return 0 for PIXELS, 1 for PIXELS_RUNS, 2 for PIXELS_RUNS followed by SEQUENCE
+     */
+    private int pixelFormat(ClientConnection client) {
+        int version = client.getProtocolVersion();
+        return version >= 4 ? 2 : version >= 2 ? 1 : 0;
+    }
+
+    /**
+     * Relay one tick of merged changes (PixelRelay), as a single frame per client
+     */
+    void forwardPending(PendingPixels pixels) {
+        Frame[] frames = new Frame[3];
+        broadcast(client -> {
+            if (client.getProtocolVersion() >= 3 && !sees(client.getViewport(), pixels.tiles)) {
+                return null;
+            }
+            int format = pixelFormat(client);
+            if (frames[format] == null) {
+                frames[format] = encodePending(pixels, format >= 1, format == 2 ? pixels.sequence : -1);
+            }
+            return frames[format];
+        });
+        metrics.pixelRelay.record(System.nanoTime() - pixels.since);
+    }
+
+    private boolean sees(Viewport viewport, BitSet tiles) {
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            if (viewport.containsTile(i % canvas.tilesAcross, i / canvas.tilesAcross)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a SUBSCRIBE message and send the tiles that came into view.
+     * The new viewport is set first, so a tile's pixel changes are either
+     * in the tile sent here or relayed after it.
+     */
+    void receiveSubscribe(DataInputStream in, ClientConnection client) throws IOException {
+        Viewport requested = new Viewport(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        Viewport viewport = requested.clip(canvas.tilesAcross);
+        Viewport before = client.getViewport();
+        client.setViewport(viewport);
+
+        for (int tileY = viewport.firstTileY; tileY <= viewport.lastTileY; tileY++) {
+            for (int tileX = viewport.firstTileX; tileX <= viewport.lastTileX; tileX++) {
+                if (before.containsTile(tileX, tileY)) continue;
+                canvas.lockTileForRead(tileX, tileY);
+                try {
+                    client.send(encodeTile(tileX, tileY));
+                } finally {
+                    canvas.unlockTileForRead(tileX, tileY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a RESUME message from a client that reconnected, and send it the
+     * changes it missed in the tiles it still has, or those tiles if the
+     * changes are no longer in the log. Like SUBSCRIBE the viewport is set
+     * first, and the log is locked while the missed changes are queued, so
+     * every later change is relayed after them.
+     */
+    void receiveResume(DataInputStream in, ClientConnection client) throws IOException {
+        long seen = in.readLong();
+        Viewport held = new Viewport(in.readInt(), in.readInt(), in.readInt(), in.readInt()).clip(canvas.tilesAcross);
+        opLog.lock.lock();
+        try {
+            client.setViewport(held);
+            if (opLog.canReplayAfter(seen)) {
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug(client.getUsername() + " resumes after " + (opLog.last() - seen) + " changes");
+                }
+                client.send(encodeReplay(seen, held));
+                return;
+            }
+        } finally {
+            opLog.lock.unlock();
+        }
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(client.getUsername() + " missed too much, sending its tiles");
+        }
+        // Outside the log's lock: reading tiles locks them, and the tile locks come first
+        client.send(encodeViewport(held));
+    }
+
+    /**
+     * Read a NAME message: name bytes, then optionally 0, the version byte
+     * and the name of the studio to join (for a DedicatedServer).
+     * @return the studio asked for, or null if none
+     */
+    String receiveName(DataInputStream in, ClientConnection client) throws IOException {
+        int len = in.readInt(); //read the length of username
+        byte[] buffer = new byte[len]; //create buffer
+        in.readFully(buffer,0,len); //read len bytes into buffer
+
+        int nameLength = len;
+        int version = 1;
+        String studio = null;
+        for (int i = 0; i + 1 < len; i++) {
+            if (buffer[i] == 0) {
+                nameLength = i;
+                version = Math.min(PROTOCOL_VERSION, buffer[i + 1] & 0xFF);
+                if (i + 2 < len) {
+                    studio = new String(buffer, i + 2, len - i - 2);
+                }
+                break;
+            }
+        }
+
+        Log.info(new String(buffer,0,nameLength) + " joined");
+        client.setUsername(new String(buffer, 0, nameLength));
+        client.setProtocolVersion(version);
+        return studio;
+    }
+
+    void sendFullSketch(ClientConnection client) throws IOException {
+        Log.debug("Sending full sketch to new client...");
+        // The canvas stays locked until the sketch is queued,
+        // so no relayed change falls between the two
+        canvas.lockAllForRead();
+        try {
+            client.send(snapshotFor(client, FULL_SKETCH));
+        } finally {
+            canvas.unlockAllForRead();
+        }
+        Log.debug("Full sketch sent.");
+    }
+
+    /**
+     * @param type FULL_SKETCH or FULL_SKETCH_UPDATE, used for old clients
+     * @return the whole canvas in the best format the client understands,
+     *         for version 3 clients every tile of their viewport
+     */
+    Frame snapshotFor(ClientConnection client, int type) {
+        if (client.getProtocolVersion() >= 3) {
+            return encodeViewport(client.getViewport());
+        }
+        return snapshots.get(client.getProtocolVersion() >= 2 ? SKETCH_PACKED : type);
+    }
+
+    void receiveFullSketchUpdate(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size != canvas.size) {
+            Log.warn("Received sketch with incompatible size. Ignoring.");
+            in.skipNBytes(4L * size * size);
+            return;
+        }
+
+        // Read the new sketch, then swap it in
+        int[] sketch = new int[size * size];
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] = in.readInt();
+        }
+        applyFullSketch(sketch);
+    }
+
+    void receivePackedSketchUpdate(DataInputStream in) throws IOException {
+        EncoderPool.Encoder encoder = encoders.take();
+        int[] sketch;
+        try {
+            sketch = encoder.sketches.readSnapshot(in, canvas.size); // skipped unless it fits
+        } finally {
+            encoders.give(encoder);
+        }
+        if (sketch == null) {
+            Log.warn("Received sketch with incompatible size. Ignoring.");
+            return;
+        }
+        applyFullSketch(sketch);
+    }
+
+    /**
+     * Replace the canvas and tell everyone.
+     * Version 2 clients that have seen every change so far only get the cells
+     * that changed; everybody else gets the whole sketch.
+     */
+    void applyFullSketch(int[] sketch) {
+        long start = System.nanoTime();
+        canvas.replaceAll(sketch, before -> {
+            if (pixelRelay != null) {
+                pixelRelay.flush(); // clients must have 'before' for a SKETCH_DIFF
+            }
+            Log.debug("Server data updated. Broadcasting to all clients.");
+            // Every tile is locked, so no batch is being relayed alongside
+            long seq = opLog.appendBarrier();
+            try {
+                broadcastFullSketch(before);
+                broadcast(encodeSequence(seq), 4);
+            } finally {
+                opLog.markRelayed(seq);
+            }
+        });
+        metrics.sketchRelay.record(System.nanoTime() - start);
+    }
+
+    void broadcastFullSketch(TiledCanvas before) {
+        Log.debug("Broadcasting full sketch.");
+        Frame[] diff = new Frame[1]; // diff or packed, chosen once
+        broadcast(client -> {
+            if (client.getProtocolVersion() >= 3) {
+                return null; // gets the changed tiles below
+            }
+            if (client.getProtocolVersion() < 2) {
+                return snapshots.get(FULL_SKETCH_UPDATE);
+            }
+            Frame packed = snapshots.get(SKETCH_PACKED);
+            if (!client.isInSync()) {
+                return packed;
+            }
+            if (diff[0] == null) {
+                Frame changes = encodeSketchDiff(before);
+                diff[0] = changes != null && changes.size() < packed.size() ? changes : packed;
+            }
+            return diff[0];
+        });
+
+        TiledCanvas after = canvas.canvas();
+        for (int tileY = 0; tileY < canvas.tilesAcross; tileY++) {
+            for (int tileX = 0; tileX < canvas.tilesAcross; tileX++) {
+                if (Arrays.equals(before.tile(tileX, tileY), after.tile(tileX, tileY))) continue;
+                int x = tileX, y = tileY;
+                Frame[] tile = new Frame[1]; // encoded for the first subscriber
+                broadcast(client -> {
+                    if (client.getProtocolVersion() < 3 || !client.getViewport().containsTile(x, y)) {
+                        return null;
+                    }
+                    if (tile[0] == null) {
+                        tile[0] = encodeTile(x, y);
+                    }
+                    return tile[0];
+                });
+            }
+        }
+        Log.debug("Broadcast complete.");
+    }
+
+    void broadcast(Frame frame) {
+        broadcast(client -> frame);
+    }
+
+    /**
+     * Queue a frame for the clients that speak at least minVersion
+     */
+    void broadcast(Frame frame, int minVersion) {
+        broadcast(client -> client.getProtocolVersion() >= minVersion ? frame : null);
+    }
+
+    interface FrameSource {
+        /**
+         * @return the frame for this client, or null to skip it
+         */
+        Frame frameFor(ClientConnection client);
+    }
+
+    /**
+     * Queue one frame for every client. Sends only queue the data, so holding
+     * clientLock here is short. Callers that need a fixed order hold the canvas
+     * locks of the cells they changed. Clients whose queue overflowed are closed afterwards.
+     * @param frames picks the frame for each client (e.g. by protocol version)
+     */
+    void broadcast(FrameSource frames) {
+        LinkedList<ClientConnection> dropped = null; // created only when a client overflows
+        clientLock.lock();
+        try {
+            for (ClientConnection client : clientMap.values()) {
+                try {
+                    Frame frame = frames.frameFor(client);
+                    if (frame == null) continue;
+                    client.send(frame);
+                } catch (IOException ex) {
+                    Log.warn("Dropping " + client.getUsername() + ": " + ex.getMessage());
+                    if (dropped == null) dropped = new LinkedList<>();
+                    dropped.add(client);
+                }
+            }
+            if (dropped != null) {
+                for (ClientConnection client : dropped) {
+                    client.close();
+                }
+            }
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    // --- Message encoding, shared by WorkerThread and NioConnection ---
+
+    // Lent to whichever thread encodes (worker threads, virtual threads or event loops)
+    final EncoderPool encoders = new EncoderPool(2 * Runtime.getRuntime().availableProcessors());
+
+    Frame encodeVersion(int version) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(VERSION);
+            message.writeInt(version);
+            return message.toFrame();
+        });
+    }
+
+    Frame encodeCanvasInfo() {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(CANVAS_INFO);
+            message.writeInt(canvas.size);
+            message.writeInt(TiledCanvas.TILE_SIZE);
+            return message.toFrame();
+        });
+    }
+
+    Frame encodeMsg(byte[] buffer) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(MESSAGE);   //Datatype 2 = message
+            message.writeInt(buffer.length);
+            message.writeBytes(buffer, 0, buffer.length);
+            return message.toFrame();
+        });
+    }
+
+    Frame encodePixels(int color, CellBuffer cells) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(PIXELS);
+            message.writeInt(color);
+            message.writeInt(cells.count());
+            for (int i = 0; i < cells.count(); i++) {
+                message.writeInt(cells.x(i));
+                message.writeInt(cells.y(i));
+            }
+            return message.toFrame();
+        });
+    }
+
+    /**
+     * @param sequence OpLog number to send after the cells in a SEQUENCE message, or -1 for none
+     */
+    Frame encodePixelRuns(int color, CellBuffer cells, long sequence) {
+        return encoders.encode(encoder -> {
+            PixelCodec codec = encoder.pixels;
+            codec.reset();
+            codec.addAll(cells);
+
+            MessageBuilder message = encoder.message;
+            message.begin(PIXELS_RUNS);
+            message.writeInt(color);
+            codec.writeTo(message);
+            writeSequence(message, sequence);
+            return message.toFrame();
+        });
+    }
+
+    Frame encodeSequence(long sequence) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.reset();
+            writeSequence(message, sequence);
+            return message.toFrame();
+        });
+    }
+
+    private void writeSequence(MessageBuilder message, long sequence) {
+        if (sequence >= 0) {
+            message.writeByte(SEQUENCE);
+            message.writeLong(sequence);
+        }
+    }
+
+    /**
+     * The logged changes after seen that touch the viewport, one PIXELS_RUNS
+     * message per change, then the SEQUENCE of the newest. The caller holds
+     * the log's lock and has checked opLog.canReplayAfter(seen).
+     */
+    Frame encodeReplay(long seen, Viewport viewport) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            PixelCodec codec = encoder.pixels;
+            message.reset();
+            for (long seq = seen + 1; seq <= opLog.last(); seq++) {
+                codec.reset();
+                int added = 0;
+                for (int i = 0; i < opLog.cellCount(seq); i++) {
+                    int cell = opLog.cell(seq, i);
+                    int x = cell % opLog.size, y = cell / opLog.size;
+                    if (viewport.containsCell(x, y)) {
+                        codec.add(x, y);
+                        added++;
+                    }
+                }
+                if (added > 0) {
+                    message.writeByte(PIXELS_RUNS);
+                    message.writeInt(opLog.color(seq));
+                    codec.writeTo(message);
+                }
+            }
+            writeSequence(message, opLog.last());
+            return message.toFrame();
+        });
+    }
+
+    /**
+     * One tick of changes as back-to-back messages, one per color
+     * @param pixels sorted by color
+     * @param runs PIXELS_RUNS messages if true, PIXELS (version 1) otherwise
+     * @param sequence OpLog number to send after the cells in a SEQUENCE message, or -1 for none
+     */
+    Frame encodePending(PendingPixels pixels, boolean runs, long sequence) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            PixelCodec codec = encoder.pixels;
+            message.reset();
+            int start = 0;
+            while (start < pixels.count()) {
+                int color = pixels.color(start);
+                int end = start;
+                while (end < pixels.count() && pixels.color(end) == color) {
+                    end++;
+                }
+
+                message.writeByte(runs ? PIXELS_RUNS : PIXELS);
+                message.writeInt(color);
+                if (runs) {
+                    codec.reset();
+                    for (int i = start; i < end; i++) {
+                        codec.add(pixels.x(i), pixels.y(i));
+                    }
+                    codec.writeTo(message);
+                } else {
+                    message.writeInt(end - start);
+                    for (int i = start; i < end; i++) {
+                        message.writeInt(pixels.x(i));
+                        message.writeInt(pixels.y(i));
+                    }
+                }
+                start = end;
+            }
+            writeSequence(message, sequence);
+            return message.toFrame();
+        });
+    }
+
+    Frame encodeSketch(int type) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(type);
+            message.writeInt(canvas.size); // Send dimension (100)
+
+            TiledCanvas cells = canvas.canvas();
+            for (int row = 0; row < canvas.size; row++) {
+                for (int col = 0; col < canvas.size; col++) {
+                    message.writeInt(cells.get(col, row));
+                }
+            }
+            return message.toFrame();
+        });
+    }
+
+    Frame encodePackedSketch() {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(SKETCH_PACKED);
+            encoder.sketches.writeSnapshot(message, canvas.canvas().toArray(), canvas.size);
+            return message.toFrame();
+        });
+    }
+
+    /**
+     * The caller holds the tile's read lock
+     */
+    Frame encodeTile(int tileX, int tileY) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(TILE);
+            writeTile(encoder, tileX, tileY);
+            return message.toFrame();
+        });
+    }
+
+    private void writeTile(EncoderPool.Encoder encoder, int tileX, int tileY) {
+        encoder.message.writeInt(tileX);
+        encoder.message.writeInt(tileY);
+        encoder.sketches.writeSnapshot(encoder.message, canvas.canvas().tile(tileX, tileY), TiledCanvas.TILE_SIZE);
+    }
+
+    /**
+     * Every tile of a viewport as TILE messages back to back in one frame.
+     * Each tile is read under its own lock.
+     */
+    Frame encodeViewport(Viewport viewport) {
+        if (viewport.isEmpty()) {
+            return new Frame(TILE, ByteBuffer.allocate(0));
+        }
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.reset();
+            for (int tileY = viewport.firstTileY; tileY <= viewport.lastTileY; tileY++) {
+                for (int tileX = viewport.firstTileX; tileX <= viewport.lastTileX; tileX++) {
+                    canvas.lockTileForRead(tileX, tileY);
+                    try {
+                        message.writeByte(TILE);
+                        writeTile(encoder, tileX, tileY);
+                    } finally {
+                        canvas.unlockTileForRead(tileX, tileY);
+                    }
+                }
+            }
+            return message.toFrame();
+        });
+    }
+
+    /**
+     * @return the cells that differ from 'before', or null if a packed sketch is the better choice
+     */
+    Frame encodeSketchDiff(TiledCanvas before) {
+        return encoders.encode(encoder -> {
+            MessageBuilder message = encoder.message;
+            message.begin(SKETCH_DIFF);
+            if (!encoder.sketches.writeDiff(message, before.toArray(), canvas.canvas().toArray(), canvas.size)) {
+                return null;
+            }
+            return message.toFrame();
+        });
+    }
+}
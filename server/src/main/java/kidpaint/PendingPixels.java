@@ -0,0 +1,92 @@
+package kidpaint;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Pixel changes waiting for the next relay tick, merged across clients.
+ * Each cell is kept once, with the color written last (last writer wins):
+ * an IntIndexMap numbers the cells, and a cell's number is its entry, so
+ * merging a batch creates no objects once the arrays have grown.
+ *
+ * Not thread safe: PixelRelay guards it.
+ */
+public class PendingPixels {
+    final int size; // canvas size, cells are y * size + x
+    final BitSet tiles = new BitSet(); // tiles the cells fall into
+    long sequence = -1;                // OpLog number of the newest batch merged
+    long since;                        // System.nanoTime() when the oldest batch was merged
+
+    private final IntIndexMap entryOf = new IntIndexMap(256); // cell index -> entry
+    private long[] entries = new long[256]; // (color << 32) | cell index, in first-write order
+    private int count = 0;
+
+    public PendingPixels(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Remember that cell (index) now has color, replacing an earlier change to it
+     */
+    void put(int index, int color) {
+        long entry = ((long) color << 32) | index;
+        int i = entryOf.put(index);
+        if (i < count) {
+            entries[i] = entry;
+            return;
+        }
+        if (count == entries.length) {
+            entries = Arrays.copyOf(entries, count * 2);
+        }
+        entries[count++] = entry;
+    }
+
+    /**
+     * Merge an applied batch
+     */
+    void putAll(PixelBatch batch) {
+        CellBuffer cells = batch.cells;
+        for (int i = 0; i < cells.count(); i++) {
+            put(cells.index(i), batch.color);
+        }
+        tiles.or(batch.tiles);
+    }
+
+    /**
+     * Order the changes by color, so each color's cells are next to each
+     * other. Only call this before reading them; put() no longer works after.
+     */
+    void sortByColor() {
+        Arrays.sort(entries, 0, count);
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int color(int i) {
+        return (int) (entries[i] >> 32);
+    }
+
+    int x(int i) {
+        return (int) entries[i] % size;
+    }
+
+    int y(int i) {
+        return (int) entries[i] / size;
+    }
+
+    /**
+     * Forget every change; only touches the slots in use
+     */
+    void clear() {
+        entryOf.clear();
+        count = 0;
+        tiles.clear();
+        sequence = -1;
+    }
+}
@@ -0,0 +1,43 @@
+package kidpaint;
+
+import java.util.BitSet;
+
+/**
+ * A pixel batch received from one client: its color, its cells and the
+ * tiles they fall into, plus the scratch space to read it.
+ * Every connection keeps one and reuses it for each PIXELS and PIXELS_RUNS
+ * message, so receiving and relaying a stroke creates no per-cell objects.
+ *
+ * Used only by the thread reading that connection, and only until the
+ * batch has been applied and relayed.
+ */
+public class PixelBatch {
+    int color;
+    final CellBuffer cells;
+    final BitSet tiles = new BitSet();
+    final PixelCodec codec = new PixelCodec();
+    private byte[] payload = new byte[256];
+
+    public PixelBatch(int canvasSize) {
+        this.cells = new CellBuffer(canvasSize);
+    }
+
+    /**
+     * Start a new batch of cells of this color
+     */
+    void begin(int color) {
+        this.color = color;
+        cells.clear();
+        tiles.clear();
+    }
+
+    /**
+     * A scratch array of at least length bytes for the encoded cells
+     */
+    byte[] payload(int length) {
+        if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,88 @@
+package kidpaint;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tick-based relay of pixel changes (--relayTick=<ms>).
+ * Applied batches are merged into PendingPixels instead of being broadcast
+ * one by one, and every tick sends what changed since the last tick as one
+ * frame per client: one message per color, every cell once with the color
+ * it got last. With many kids drawing that is one broadcast per tick instead
+ * of one per stroke part, at the price of up to one tick of extra latency.
+ *
+ * Two PendingPixels take turns, so drawing clients only wait for the merge,
+ * never for a flush. Flushes run one at a time, so ticks arrive in order.
+ * Lock order: canvas tiles, then flushLock, then pendingLock, then the OpLog, then clientLock.
+ */
+public class PixelRelay implements Runnable {
+    private PaintServerHost server;
+    private long intervalMillis;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private PendingPixels pending; // being filled, guarded by pendingLock
+    private PendingPixels sending; // being sent, guarded by flushLock
+
+    public PixelRelay(PaintServerHost server, long intervalMillis) {
+        this.server = server;
+        this.intervalMillis = intervalMillis;
+        this.pending = new PendingPixels(server.canvas.size);
+        this.sending = new PendingPixels(server.canvas.size);
+    }
+
+    /**
+     * Log an applied batch and queue it for the next tick. Called with the batch's
+     * tiles still locked, so changes to a cell are merged in the order they were
+     * applied, and a tick carries every logged batch up to its sequence number.
+     */
+    void add(PixelBatch batch) {
+        pendingLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                pending.since = System.nanoTime();
+            }
+            pending.putAll(batch);
+            pending.sequence = server.opLog.appendPixels(batch.color, batch.cells);
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Send everything merged so far. Also called before a whole new sketch
+     * is broadcast, so no older pixel change arrives after it.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            PendingPixels batch;
+            pendingLock.lock();
+            try {
+                batch = pending;
+                pending = sending;
+                sending = batch;
+            } finally {
+                pendingLock.unlock();
+            }
+            if (batch.isEmpty()) return;
+            batch.sortByColor();
+            server.forwardPending(batch);
+            batch.clear();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        Log.info("Relaying pixel changes every " + intervalMillis + " ms");
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+        flush(); // what was still waiting
+    }
+}
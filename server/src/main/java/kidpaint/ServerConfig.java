@@ -0,0 +1,141 @@
+package kidpaint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Startup options for the paint server.
+ * Values come from the named program arguments, e.g. --server=nio|virtual --ioThreads=4
+ * --queueLimit=1024 --overflow=resync --tcpNoDelay=true --canvasSize=100 --relayTick=15
+ * --opLog=4096 --journal=studio --journalSync=50 --snapshotEvery=300 --log=warn --metricsEvery=10
+ */
+public class ServerConfig {
+
+    /**
+     * How client connections are served.
+     * THREADED starts one WorkerThread per client (the original server),
+     * NIO runs every client on a small set of selector event loops,
+     * VIRTUAL runs the same code as THREADED on virtual threads.
+     */
+    enum Mode { THREADED, NIO, VIRTUAL }
+
+    /**
+     * What to do with a client whose outbound queue is full.
+     * DROP skips the new frame and queues one full sketch once there is room
+     * again, RESYNC replaces the queued canvas changes with one full sketch
+     * at once, DISCONNECT closes the connection.
+     */
+    enum OverflowPolicy { DROP, RESYNC, DISCONNECT }
+
+    Mode mode = Mode.THREADED;
+    int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    int queueLimit = 1024;
+    OverflowPolicy overflowPolicy = OverflowPolicy.RESYNC;
+    // Every message is written in one call, so Nagle's algorithm only adds latency
+    boolean tcpNoDelay = true;
+    // Cells per side; anything up to a 4096x4096 mural
+    int canvasSize = 100;
+    // Milliseconds between pixel relay ticks (PixelRelay); 0 relays every batch as soon as it arrives
+    int relayTick = 0;
+    // Pixel batches kept in the OpLog for clients that reconnect
+    int opLog = 4096;
+    // Directory to keep the studio in (StudioJournal); null keeps it in memory only
+    String journal = null;
+    // Milliseconds between journal writes, each forced to disk once
+    int journalSync = 50;
+    // Seconds between snapshots that fold the journal in
+    int snapshotEvery = 300;
+    // What the server prints (Log), nothing unless asked for; per-message lines only at DEBUG
+    Log.Level logLevel = Log.Level.OFF;
+    // Seconds between printed ServerMetrics reports; 0 prints none (JMX shows them anyway)
+    int metricsEvery = 0;
+
+    /**
+     * Build a config from named arguments. Unknown keys are ignored.
+     * @param named the named parameters of the application
+     * @return the config
+     */
+    static ServerConfig fromArgs(Map<String, String> named) {
+        ServerConfig config = new ServerConfig();
+
+        String mode = named.get("server");
+        if (mode != null) {
+            config.mode = Mode.valueOf(mode.trim().toUpperCase());
+        }
+
+        String ioThreads = named.get("ioThreads");
+        if (ioThreads != null) {
+            config.ioThreads = Math.max(1, Integer.parseInt(ioThreads.trim()));
+        }
+
+        String queueLimit = named.get("queueLimit");
+        if (queueLimit != null) {
+            config.queueLimit = Math.max(1, Integer.parseInt(queueLimit.trim()));
+        }
+
+        String overflow = named.get("overflow");
+        if (overflow != null) {
+            config.overflowPolicy = OverflowPolicy.valueOf(overflow.trim().toUpperCase());
+        }
+
+        String tcpNoDelay = named.get("tcpNoDelay");
+        if (tcpNoDelay != null) {
+            config.tcpNoDelay = Boolean.parseBoolean(tcpNoDelay.trim());
+        }
+
+        String canvasSize = named.get("canvasSize");
+        if (canvasSize != null) {
+            config.canvasSize = Math.max(1, Math.min(4096, Integer.parseInt(canvasSize.trim())));
+        }
+
+        String relayTick = named.get("relayTick");
+        if (relayTick != null) {
+            config.relayTick = Math.max(0, Integer.parseInt(relayTick.trim()));
+        }
+
+        String opLog = named.get("opLog");
+        if (opLog != null) {
+            config.opLog = Math.max(1, Integer.parseInt(opLog.trim()));
+        }
+
+        String journal = named.get("journal");
+        if (journal != null && !journal.isBlank()) {
+            config.journal = journal.trim();
+        }
+
+        String journalSync = named.get("journalSync");
+        if (journalSync != null) {
+            config.journalSync = Math.max(1, Integer.parseInt(journalSync.trim()));
+        }
+
+        String snapshotEvery = named.get("snapshotEvery");
+        if (snapshotEvery != null) {
+            config.snapshotEvery = Math.max(1, Integer.parseInt(snapshotEvery.trim()));
+        }
+
+        String log = named.get("log");
+        if (log != null) {
+            config.logLevel = Log.Level.valueOf(log.trim().toUpperCase());
+        }
+
+        String metricsEvery = named.get("metricsEvery");
+        if (metricsEvery != null) {
+            config.metricsEvery = Math.max(0, Integer.parseInt(metricsEvery.trim()));
+        }
+        return config;
+    }
+
+    /**
+     * The --key=value arguments of a plain main(), as JavaFX's getNamed() would give them
+     */
+    static Map<String, String> namedArgs(String[] args) {
+        Map<String, String> named = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (arg.startsWith("--") && equals > 2) {
+                named.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return named;
+    }
+}
@@ -0,0 +1,282 @@
+package kidpaint;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of one studio's server, cheap enough to update for every message:
+ * messages in and frames out by type, bytes both ways, and how long relaying
+ * takes (pixels: applied, logged and queued for every client; chat; whole
+ * sketches). Gauges (clients, send backlogs, canvas version) are read from
+ * the server when asked.
+ * Shown over JMX (ServerMetricsMXBean) and, with --metricsEvery=<s>, printed
+ * as a text report.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    // Indexed by message type, as numbered in PaintServerHost; one more slot for unknown types
+    final static String[] TYPE_NAMES = {"NAME", "PIXELS", "MESSAGE", "FULL_SKETCH", "FULL_SKETCH_UPDATE",
+            "VERSION", "PIXELS_RUNS", "SKETCH_PACKED", "SKETCH_DIFF", "CANVAS_INFO", "SUBSCRIBE", "TILE",
+            "SEQUENCE", "RESUME", "OTHER"};
+    // Clients listed by name in the report, the most backed up first
+    final static int BACKLOG_LISTED = 5;
+
+    private PaintServerHost server;
+    private String studioName;
+    private final LongAdder[] messagesIn = adders(TYPE_NAMES.length);
+    private final LongAdder[] framesOut = adders(TYPE_NAMES.length);
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LatencyHistogram pixelRelay = new LatencyHistogram();
+    final LatencyHistogram chatRelay = new LatencyHistogram();
+    final LatencyHistogram sketchRelay = new LatencyHistogram();
+    private ObjectName objectName;
+    private Thread reporter;
+
+    public ServerMetrics(PaintServerHost server, String studioName) {
+        this.server = server;
+        this.studioName = studioName;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static int slot(int type) {
+        return type >= 0 && type < TYPE_NAMES.length ? type : TYPE_NAMES.length - 1;
+    }
+
+    void messageIn(int type) {
+        messagesIn[slot(type)].increment();
+    }
+
+    /**
+     * A frame was written to a client
+     */
+    void frameOut(Frame frame) {
+        framesOut[slot(frame.type)].increment();
+        bytesOut.add(frame.size());
+    }
+
+    /**
+     * Wrap a client's socket stream so what it reads counts as bytes in
+     * of the studio the client is in
+     */
+    static InputStream countBytesIn(InputStream in, ClientConnection client) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) client.studio().metrics.bytesIn.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) client.studio().metrics.bytesIn.add(read);
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                client.studio().metrics.bytesIn.add(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Show the metrics over JMX and, if reportSeconds > 0, print them that often
+     */
+    void start(int reportSeconds) {
+        try {
+            ObjectName name = new ObjectName("kidpaint:type=Studio,name=" + ObjectName.quote(studioName));
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            if (!mbeans.isRegistered(name)) {
+                mbeans.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            Log.warn("Metrics not available over JMX: " + e.getMessage());
+        }
+
+        if (reportSeconds > 0) {
+            reporter = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(reportSeconds * 1000L);
+                        System.out.print(getReport());
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "metrics-report");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    void stop() {
+        if (reporter != null) {
+            reporter.interrupt();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // gone already
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public int getConnectedClients() {
+        server.clientLock.lock();
+        try {
+            return server.clientMap.size();
+        } finally {
+            server.clientLock.unlock();
+        }
+    }
+
+    @Override
+    public long getCanvasVersion() {
+        return server.canvas.version();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesIn() {
+        return byType(messagesIn);
+    }
+
+    @Override
+    public Map<String, Long> getFramesOut() {
+        return byType(framesOut);
+    }
+
+    private static Map<String, Long> byType(LongAdder[] counters) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < counters.length; i++) {
+            long count = counters[i].sum();
+            if (count > 0) counts.put(TYPE_NAMES[i], count);
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getSendBacklog() {
+        Map<String, Integer> backlog = new LinkedHashMap<>();
+        for (ClientConnection client : clients()) {
+            backlog.put(String.valueOf(client.getUsername()), client.backlog());
+        }
+        return backlog;
+    }
+
+    private List<ClientConnection> clients() {
+        server.clientLock.lock();
+        try {
+            return new ArrayList<>(server.clientMap.values());
+        } finally {
+            server.clientLock.unlock();
+        }
+    }
+
+    @Override
+    public long getPixelRelayCount() {
+        return pixelRelay.count();
+    }
+
+    @Override
+    public long getPixelRelayP50Micros() {
+        return pixelRelay.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getPixelRelayP99Micros() {
+        return pixelRelay.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getPixelRelayP999Micros() {
+        return pixelRelay.percentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getPixelRelayMaxMicros() {
+        return pixelRelay.max() / 1000;
+    }
+
+    @Override
+    public long getChatRelayP99Micros() {
+        return chatRelay.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getSketchRelayP99Micros() {
+        return sketchRelay.percentile(99) / 1000;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Studio \"%s\": %d clients, canvas version %d%n",
+                studioName, getConnectedClients(), getCanvasVersion()));
+        report.append(String.format("  in   %,d bytes  %s%n", bytesIn.sum(), getMessagesIn()));
+        report.append(String.format("  out  %,d bytes  %s%n", bytesOut.sum(), getFramesOut()));
+        appendRelay(report, "pixels", pixelRelay);
+        appendRelay(report, "chat", chatRelay);
+        appendRelay(report, "sketch", sketchRelay);
+
+        List<ClientConnection> clients = clients();
+        int[] backlogs = new int[clients.size()];
+        long total = 0;
+        for (int i = 0; i < backlogs.length; i++) {
+            backlogs[i] = clients.get(i).backlog();
+            total += backlogs[i];
+        }
+        report.append(String.format("  send backlog  %d frames queued", total));
+        for (int listed = 0; listed < BACKLOG_LISTED; listed++) {
+            int worst = -1;
+            for (int i = 0; i < backlogs.length; i++) {
+                if (backlogs[i] > 0 && (worst < 0 || backlogs[i] > backlogs[worst])) worst = i;
+            }
+            if (worst < 0) break;
+            report.append(listed == 0 ? ", most: " : ", ")
+                    .append(clients.get(worst).getUsername()).append(' ').append(backlogs[worst]);
+            backlogs[worst] = 0;
+        }
+        report.append(System.lineSeparator());
+        return report.toString();
+    }
+
+    private static void appendRelay(StringBuilder report, String name, LatencyHistogram histogram) {
+        if (histogram.count() == 0) return;
+        report.append(String.format("  relay %-7s %,9d  %s%n", name, histogram.count(), histogram.summary()));
+    }
+}
@@ -0,0 +1,52 @@
+package kidpaint;
+
+import java.util.Map;
+
+/**
+ * What ServerMetrics shows over JMX (jconsole, VisualVM), one MBean per studio:
+ * kidpaint:type=Studio,name="<studio name>". Latencies are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+
+    int getConnectedClients();
+
+    long getCanvasVersion();
+
+    /**
+     * Messages read, by message type name
+     */
+    Map<String, Long> getMessagesIn();
+
+    /**
+     * Frames written, by the type of their first message
+     */
+    Map<String, Long> getFramesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    /**
+     * Frames waiting in each client's OutboundQueue, by username
+     */
+    Map<String, Integer> getSendBacklog();
+
+    long getPixelRelayCount();
+
+    long getPixelRelayP50Micros();
+
+    long getPixelRelayP99Micros();
+
+    long getPixelRelayP999Micros();
+
+    long getPixelRelayMaxMicros();
+
+    long getChatRelayP99Micros();
+
+    long getSketchRelayP99Micros();
+
+    /**
+     * Everything above as the text the periodic dump prints
+     */
+    String getReport();
+}
@@ -0,0 +1,46 @@
+package kidpaint;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Encoded whole-canvas frames, shared by every client that needs the canvas
+ * at the same version. A frame is only rebuilt when it is asked for after
+ * PIXELS or a full sketch update changed the canvas, so a burst of joins
+ * encodes the canvas once. The joins wait for that on a ReentrantLock, so in
+ * VIRTUAL mode they do not pin their carrier threads while it encodes.
+ */
+public class SnapshotCache {
+    private PaintServerHost server;
+    // Indexed by message type: FULL_SKETCH, FULL_SKETCH_UPDATE or SKETCH_PACKED
+    private Frame[] frames = new Frame[16];
+    private long[] versions = new long[16];
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SnapshotCache(PaintServerHost server) {
+        this.server = server;
+    }
+
+    /**
+     * @param type FULL_SKETCH, FULL_SKETCH_UPDATE or SKETCH_PACKED
+     * @return the canvas encoded as that message, at the current canvas version
+     */
+    Frame get(int type) {
+        // Canvas locks come before this cache's lock (see CanvasModel)
+        server.canvas.lockAllForRead();
+        try {
+            lock.lock();
+            try {
+                long version = server.canvas.version();
+                if (frames[type] == null || versions[type] != version) {
+                    frames[type] = type == server.SKETCH_PACKED ? server.encodePackedSketch() : server.encodeSketch(type);
+                    versions[type] = version;
+                }
+                return frames[type];
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            server.canvas.unlockAllForRead();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package kidpaint;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the studio on disk (--journal=<dir>), so a host that quits finds
+ * the canvas again when it starts the server next time.
+ *
+ * Two files in the directory:
+ *   snapshot.dat - int MAGIC, long sequence, the canvas in the SketchCodec format
+ *   journal.log  - the pixel batches after that snapshot, each
+ *                  long sequence, int color, int count, count cells (y * size + x)
+ *
+ * The journal is written by its own thread, never by the threads that relay
+ * drawing: every sync interval it copies the batches the OpLog got since
+ * the last sync, writes them with one FileChannel write and forces them to
+ * disk once (group fsync). A whole-sketch replace, batches that already left
+ * the OpLog ring, a big journal or the snapshot interval make it write a new
+ * snapshot instead and empty the journal.
+ * Recovery loads the snapshot and replays the journal on top; a batch cut off
+ * by a crash ends the replay.
+ */
+public class StudioJournal implements Runnable {
+    final static int MAGIC = 0x4B505331; // "KPS1"
+    // Write a snapshot instead once the journal is this big
+    final static long MAX_JOURNAL_BYTES = 64L * 1024 * 1024;
+    // Tile-by-tile copies tried for a snapshot before it locks the whole canvas
+    final static int COPY_ATTEMPTS = 3;
+
+    private Path directory;
+    private Path snapshotFile;
+    private Path journalFile;
+    private long syncMillis;
+    private long snapshotMillis;
+    private PaintServerHost server;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private long journaled;     // sequence number of the newest change on disk
+    private long journalBytes = 0;
+    private long lastSnapshot;  // System.currentTimeMillis()
+    private int size;           // canvas size found by recover()
+    private volatile boolean closed = false;
+    // Taken by sync(), snapshot() and close(), which may run on the journal thread and a shutdown hook at once
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param syncMillis how often new changes are written and forced to disk
+     * @param snapshotMillis how often the journal is folded into a new snapshot
+     */
+    public StudioJournal(Path directory, long syncMillis, long snapshotMillis) {
+        this.directory = directory;
+        this.snapshotFile = directory.resolve("snapshot.dat");
+        this.journalFile = directory.resolve("journal.log");
+        this.syncMillis = syncMillis;
+        this.snapshotMillis = snapshotMillis;
+    }
+
+    /**
+     * Read the stored studio, before the server creates its canvas
+     * @return size*size colors, row by row, or null if nothing was stored; see size()
+     */
+    int[] recover() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+        int[] cells;
+        long sequence;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(snapshotFile + " is not a studio snapshot");
+            }
+            sequence = in.readLong();
+            SketchCodec codec = new SketchCodec();
+            cells = codec.readSnapshot(in, 0);
+            size = codec.lastSize();
+        }
+
+        int replayed = 0;
+        if (Files.exists(journalFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+                replay:
+                while (true) {
+                    long seq = in.readLong();
+                    int color = in.readInt();
+                    int count = in.readInt();
+                    if (seq <= sequence || count < 0 || count > cells.length) break; // not written by us
+                    for (int i = 0; i < count; i++) {
+                        int cell = in.readInt();
+                        if (cell < 0 || cell >= cells.length) break replay; // not written by us
+                        cells[cell] = color;
+                    }
+                    sequence = seq;
+                    replayed++;
+                }
+            } catch (EOFException ex) {
+                // the end; a batch cut off by a crash is applied as far as it got
+            }
+        }
+        Log.info("Studio recovered from " + directory + ": " + size + "x" + size
+                + " snapshot and " + replayed + " journaled batches");
+        return cells;
+    }
+
+    /**
+     * The size of the canvas recover() returned
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Start journaling the server's changes on a new thread. The first thing
+     * it does is fold the recovered state into a fresh snapshot.
+     */
+    void start(PaintServerHost server) throws IOException {
+        this.server = server;
+        Files.createDirectories(directory);
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        Thread thread = new Thread(this, "studio-journal");
+        thread.setDaemon(true);
+        thread.start();
+        // The host usually quits with System.exit(), so write the last changes on the way out too
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    @Override
+    public void run() {
+        try {
+            snapshot();
+            while (!closed) {
+                Thread.sleep(syncMillis);
+                sync();
+            }
+        } catch (InterruptedException ex) {
+            // stopped
+        } catch (IOException ex) {
+            Log.warn("Studio journal stopped: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write what changed since the last sync and stop journaling
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed || channel == null) return; // closed already, or never started
+            closed = true;
+            try {
+                sync();
+                channel.close();
+            } catch (IOException ex) {
+                Log.warn("Studio journal not closed cleanly: " + ex.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the changes since the last sync with one write and one force,
+     * or a new snapshot if the journal cannot or should not grow
+     */
+    void sync() throws IOException {
+        lock.lock();
+        try {
+            if (!channel.isOpen()) return;
+            OpLog log = server.opLog;
+            long last;
+            boolean needSnapshot;
+            buffer.clear();
+            log.lock.lock();
+            try {
+                last = log.last();
+                if (last == journaled) return;
+                needSnapshot = !log.canReplayAfter(journaled);
+                if (!needSnapshot) {
+                    for (long seq = journaled + 1; seq <= last; seq++) {
+                        int count = log.cellCount(seq);
+                        ensureRoom(16 + 4L * count);
+                        buffer.putLong(seq);
+                        buffer.putInt(log.color(seq));
+                        buffer.putInt(count);
+                        for (int i = 0; i < count; i++) {
+                            buffer.putInt(log.cell(seq, i));
+                        }
+                    }
+                }
+            } finally {
+                log.lock.unlock();
+            }
+
+            if (needSnapshot || journalBytes + buffer.position() > MAX_JOURNAL_BYTES
+                    || System.currentTimeMillis() - lastSnapshot > snapshotMillis) {
+                snapshot(); // covers everything in the buffer
+                return;
+            }
+            buffer.flip();
+            journalBytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            journaled = last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy the canvas, each tile under its own read lock
+     */
+    private void copyTiles(int[] cells) {
+        CanvasModel canvas = server.canvas;
+        for (int tileY = 0; tileY < canvas.tilesAcross; tileY++) {
+            for (int tileX = 0; tileX < canvas.tilesAcross; tileX++) {
+                canvas.lockTileForRead(tileX, tileY);
+                try {
+                    canvas.canvas().copyTile(tileX, tileY, cells);
+                } finally {
+                    canvas.unlockTileForRead(tileX, tileY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the whole canvas to a new snapshot file, swap it in, and empty the journal
+     */
+    void snapshot() throws IOException {
+        lock.lock();
+        try {
+            CanvasModel canvas = server.canvas;
+            int[] cells = new int[canvas.size * canvas.size];
+            long sequence = -1;
+            boolean copied = false;
+            for (int attempt = 0; attempt < COPY_ATTEMPTS && !copied; attempt++) {
+                // Every batch up to sequence is applied by now. The tiles are copied one
+                // at a time after it, so drawing only waits for one tile; a copied tile may
+                // also hold newer batches, and recovery replays those on top again.
+                sequence = server.opLog.last();
+                copyTiles(cells);
+                // Only a whole-sketch replace in between spoils the copy. Batches that left
+                // the OpLog ring meanwhile do not; the next sync() writes another snapshot then.
+                copied = server.opLog.lastBarrier() <= sequence;
+            }
+            if (!copied) {
+                // Replaced during every copy: hold all tiles for one
+                canvas.lockAllForRead();
+                try {
+                    sequence = server.opLog.last();
+                    cells = canvas.canvas().toArray();
+                } finally {
+                    canvas.unlockAllForRead();
+                }
+            }
+
+            MessageBuilder message = new MessageBuilder(64 * 1024);
+            message.writeInt(MAGIC);
+            message.writeLong(sequence);
+            new SketchCodec().writeSnapshot(message, cells, server.canvas.size);
+
+            Path temporary = directory.resolve("snapshot.tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bytes = ByteBuffer.wrap(message.array(), 0, message.size());
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                out.force(true);
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Everything in the journal is in the snapshot now
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            journaled = sequence;
+            journalBytes = 0;
+            lastSnapshot = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureRoom(long bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect((int) Math.max(buffer.capacity() * 2L, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.List;
+
+/**
+ * Answers the joining kids' discovery broadcasts with one reply per studio
+ * on this machine: "KIDPAINT_STUDIO:<studio name>:<TCP port>".
+ * A host's own server has one studio, a DedicatedServer all of its studios.
+ */
+public class UdpBroadcastListener implements Runnable {
+    final static int DISCOVERY_PORT = 12346;
+    final static String DISCOVERY_REQUEST = "KIDPAINT_DISCOVERY_REQUEST";
+    final static String DISCOVERY_REPLY_HEADER = "KIDPAINT_STUDIO:";
+
+    private List<String> studioNames;
+    private int port;
+
+    public UdpBroadcastListener(List<String> studioNames, int port) {
+        this.studioNames = studioNames;
+        this.port = port;
+    }
+
+    @Override
+    public void run() {
+        // Try-with-resources to ensure socket is closed
+        try (DatagramSocket socket = new DatagramSocket(DISCOVERY_PORT)) {
+            Log.info("UDP Discovery listener started on port " + DISCOVERY_PORT);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] receiveBuffer = new byte[1024];
+                DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                socket.receive(receivePacket); // Block until a packet is received
+
+                String message = new String(receivePacket.getData(), 0, receivePacket.getLength());
+
+                // If we get the correct request...
+                if (message.equals(DISCOVERY_REQUEST)) {
+                    Log.debug("Received discovery request from " + receivePacket.getAddress());
+
+                    // ...reply with each studio name and the TCP port
+                    for (String studioName : studioNames) {
+                        byte[] sendData = (DISCOVERY_REPLY_HEADER + studioName + ":" + port).getBytes();
+
+                        // Send the reply back to where the request came from
+                        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length,
+                                receivePacket.getAddress(), receivePacket.getPort());
+                        socket.send(sendPacket);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                Log.info("UDP Listener stopped.");
+            } else {
+                Log.warn("UDP Listener error: " + e.getMessage());
+            }
+        }
+    }
+}
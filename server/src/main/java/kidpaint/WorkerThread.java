@@ -0,0 +1,156 @@
+package kidpaint;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A client served with blocking I/O: this thread reads, a second one writes.
+ * In VIRTUAL mode both run on virtual threads instead, and this object is
+ * only the reading thread's Runnable.
+ */
+public class WorkerThread extends Thread implements ClientConnection {
+    private final static ThreadFactory VIRTUAL_THREADS = Thread.ofVirtual().name("kid-", 0).factory();
+
+    private String username;
+    private int protocolVersion = 1;
+    private volatile Viewport viewport = Viewport.NONE;
+    private volatile PaintServerHost server; // changes if a DedicatedServer moves the client
+    private Socket socket;
+    private SocketChannel channel; // blocking, used for writing frames
+    private OutboundQueue queue;
+    private PixelBatch pixelBatch;
+    private boolean virtual;
+
+    public WorkerThread(Socket socket, PaintServerHost server, boolean virtual) throws IOException { // <-- NEW CLASS
+        this.socket = socket;
+        this.server = server;
+        this.virtual = virtual;
+        this.channel = socket.getChannel();
+        this.queue = new OutboundQueue(server, this, server.config.queueLimit, server.config.overflowPolicy);
+        this.pixelBatch = new PixelBatch(server.canvas.size);
+    }
+
+    public PaintServerHost studio() {
+        return server;
+    }
+
+    public void switchTo(PaintServerHost studio) {
+        queue.moveTo(studio);
+        pixelBatch = new PixelBatch(studio.canvas.size);
+        server = studio;
+    }
+
+    public Socket socket() {
+        return socket;
+    }
+
+    public boolean isClosed() {
+        return queue.isClosed();
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setProtocolVersion(int version) {
+        this.protocolVersion = version;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public boolean isInSync() {
+        return queue.isInSync();
+    }
+
+    public void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public PixelBatch pixelBatch() {
+        return pixelBatch;
+    }
+
+    public void send(Frame frame) throws IOException {
+        if (!queue.offer(frame)) {
+            throw new IOException("outbound queue overflow");
+        }
+    }
+
+    public int backlog() {
+        return queue.size();
+    }
+
+    public void close() {
+        queue.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        server.clientLock.lock();
+        try {
+            server.clientMap.remove(socket);
+        } finally {
+            server.clientLock.unlock();
+        }
+    }
+
+    /**
+     * Runs on this client's writer thread: send queued frames, one write each.
+     */
+    private void writeLoop() {
+        try {
+            Frame frame;
+            while ((frame = queue.take()) != null) {
+                ByteBuffer data = frame.data();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                server.metrics.frameOut(frame);
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+
+    /**
+     * Start reading (and writing) for this client
+     */
+    void startServing() {
+        if (virtual) {
+            VIRTUAL_THREADS.newThread(this).start();
+        } else {
+            start();
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread writer = virtual ? VIRTUAL_THREADS.newThread(this::writeLoop) : new Thread(this::writeLoop);
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            server.serve(socket, this);
+        } catch (IOException e) {
+            Log.info("Disconnected!");
+            close();
+        } catch (RuntimeException e) {
+            // Not left in clientMap as a ghost the others keep sending to
+            Log.warn("Dropping " + username + ": " + e);
+            close();
+        }
+    }
+}
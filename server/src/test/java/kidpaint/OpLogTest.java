@@ -0,0 +1,151 @@
+package kidpaint;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpLogTest {
+    final static int SIZE = 100;
+
+    @Test
+    void emptyLogIsUpToDate() {
+        OpLog log = new OpLog(SIZE, 4);
+        assertTrue(log.canReplayAfter(log.last()));
+        assertFalse(log.canReplayAfter(log.last() - 1));
+        assertFalse(log.canReplayAfter(log.last() + 1));
+        assertEquals(log.last(), log.relayed());
+    }
+
+    @Test
+    void replaysWhatIsStillInTheRing() {
+        OpLog log = new OpLog(SIZE, 4);
+        long before = log.last();
+        long[] seqs = new long[10];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = log.appendPixels(i, cells(i, i + 1));
+            assertEquals(before + 1 + i, seqs[i]);
+        }
+
+        // only the newest 4 are kept, so only someone who saw the 6th can be caught up
+        assertFalse(log.canReplayAfter(before));
+        assertFalse(log.canReplayAfter(seqs[4]));
+        for (int i = 5; i < seqs.length; i++) {
+            assertTrue(log.canReplayAfter(seqs[i]));
+        }
+        assertFalse(log.canReplayAfter(seqs[9] + 1)); // from the future, or another server
+
+        // the slots of the dropped batches hold the new ones
+        log.lock.lock();
+        try {
+            for (int i = 6; i < seqs.length; i++) {
+                assertEquals(i, log.color(seqs[i]));
+                assertEquals(i + 1, log.cellCount(seqs[i]));
+                for (int j = 0; j <= i; j++) {
+                    assertEquals(i * SIZE + j, log.cell(seqs[i], j));
+                }
+            }
+        } finally {
+            log.lock.unlock();
+        }
+    }
+
+    @Test
+    void cellsOutOfRoomDropOldBatches() {
+        OpLog log = new OpLog(SIZE, 16);
+        long first = log.appendPixels(1, cells(0, OpLog.MAX_CELLS / 2 + 1));
+        assertTrue(log.canReplayAfter(first - 1));
+        long second = log.appendPixels(2, cells(0, OpLog.MAX_CELLS / 2 + 1));
+        assertFalse(log.canReplayAfter(first - 1)); // the first batch made room for the second
+        assertTrue(log.canReplayAfter(first));
+
+        log.lock.lock();
+        try {
+            assertEquals(OpLog.MAX_CELLS / 2 + 1, log.cellCount(second));
+            assertEquals(OpLog.MAX_CELLS / 2, log.cell(second, OpLog.MAX_CELLS / 2)); // wrapped around the cell ring
+        } finally {
+            log.lock.unlock();
+        }
+    }
+
+    @Test
+    void noReplayAcrossABarrier() {
+        OpLog log = new OpLog(SIZE, 8);
+        long a = log.appendPixels(1, cells(0, 3));
+        long barrier = log.appendBarrier();
+        long b = log.appendPixels(2, cells(1, 3));
+
+        assertFalse(log.canReplayAfter(a - 1));
+        assertFalse(log.canReplayAfter(a));
+        assertTrue(log.canReplayAfter(barrier));
+        assertTrue(log.canReplayAfter(b));
+        assertEquals(barrier, log.lastBarrier());
+        log.lock.lock();
+        try {
+            assertEquals(-1, log.cellCount(barrier));
+        } finally {
+            log.lock.unlock();
+        }
+
+        // a barrier keeps no cells, so a batch too big for the cell ring is logged as one
+        long big = log.appendPixels(3, cells(0, OpLog.MAX_CELLS + 1));
+        assertEquals(big, log.lastBarrier());
+        assertFalse(log.canReplayAfter(b));
+    }
+
+    @Test
+    void relayedWaitsForEveryEarlierChange() {
+        OpLog log = new OpLog(SIZE, 8);
+        long before = log.relayed();
+        long a = log.appendPixels(1, cells(0, 1));
+        long barrier = log.appendBarrier();
+        long c = log.appendPixels(3, cells(2, 1));
+        assertEquals(before, log.relayed());
+
+        log.markRelayed(c);
+        assertEquals(before, log.relayed());
+        log.markRelayed(a);
+        assertEquals(a, log.relayed());
+        log.markRelayed(barrier);
+        assertEquals(c, log.relayed());
+    }
+
+    @Test
+    void relayedSkipsChangesThatLeftTheRing() {
+        OpLog log = new OpLog(SIZE, 4);
+        long[] seqs = new long[6];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = log.appendPixels(i, cells(i, 1));
+        }
+        // the first two were dropped before their relay finished
+        log.markRelayed(seqs[2]);
+        assertEquals(seqs[2], log.relayed());
+        log.markRelayed(seqs[4]);
+        assertEquals(seqs[2], log.relayed());
+        log.markRelayed(seqs[3]);
+        assertEquals(seqs[4], log.relayed());
+    }
+
+    @Test
+    void reusedSlotIsNotTakenAsRelayed() {
+        OpLog log = new OpLog(SIZE, 2);
+        long a = log.appendPixels(1, cells(0, 1));
+        log.markRelayed(a);
+        long b = log.appendPixels(2, cells(1, 1));
+        long c = log.appendPixels(3, cells(2, 1)); // in a's slot, which still says a is relayed
+        log.markRelayed(b);
+        assertEquals(b, log.relayed());
+        log.markRelayed(c);
+        assertEquals(c, log.relayed());
+    }
+
+    /**
+     * count cells starting at the start of row y, running on into the next rows
+     */
+    private static CellBuffer cells(int y, int count) {
+        CellBuffer buffer = new CellBuffer(SIZE);
+        buffer.addRun(0, y, count);
+        return buffer;
+    }
+}